@@ -0,0 +1,199 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+// A phone number packed into two longs, for directories holding millions of
+// them. A PhoneNumber is an object with three Strings, each with its own byte
+// array: well over a hundred bytes for a dozen digits. Here every digit takes
+// four bits.
+//
+// The 32 nibbles of the two longs hold the digits of the country code, the
+// area code and the number, most significant nibble first, with a 0 nibble
+// after each of the first two parts. A digit d is stored as d + 1, so 0 can
+// only be a separator or padding after the last digit. This makes the packed
+// form compare like the strings do: a separator is smaller than any digit, just
+// like a shorter string is smaller than a longer one it's a prefix of, so
+// comparing the two longs as unsigned numbers gives the same order as
+// PhoneNumber.compareTo. equals, hashCode and compareTo are then a few
+// instructions on primitives, without allocating anything.
+//
+// There's room for 30 digits in total, twice as much as an international
+// number can have.
+public final class CompactPhoneNumber implements Comparable<CompactPhoneNumber>, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int NIBBLES = 32;
+
+    private final long high;
+    private final long low;
+
+    public CompactPhoneNumber(String country, String area, String number) {
+        var packer = new Packer();
+        packer.digits(country);
+        packer.separator();
+        packer.digits(area);
+        packer.separator();
+        packer.digits(number);
+        high = packer.high;
+        low = packer.low;
+    }
+
+    private CompactPhoneNumber(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static CompactPhoneNumber of(PhoneNumber p) {
+        return new CompactPhoneNumber(p.getCountry(), p.getArea(), p.getNumber());
+    }
+
+    // The packed form, for storing numbers outside of objects, like in a long[]
+    // or a file
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public static CompactPhoneNumber fromPacked(long high, long low) {
+        validate(high, low);
+        return new CompactPhoneNumber(high, low);
+    }
+
+    private static final class Packer {
+        long high;
+        long low;
+        int count;
+
+        void digits(String s) {
+            if (s.isEmpty()) {
+                throw new IllegalArgumentException("String must contain only digits");
+            }
+            for (int i = 0; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("String must contain only digits");
+                }
+                put(c - '0' + 1);
+            }
+        }
+
+        void separator() {
+            put(0);
+        }
+
+        private void put(int nibble) {
+            if (count == NIBBLES) {
+                throw new IllegalArgumentException("Too many digits");
+            }
+            if (count < 16) {
+                high |= (long)nibble << (60 - 4 * count);
+            } else {
+                low |= (long)nibble << (60 - 4 * (count - 16));
+            }
+            ++count;
+        }
+    }
+
+    private static int nibble(long high, long low, int i) {
+        return (int)((i < 16 ? high >>> (60 - 4 * i) : low >>> (60 - 4 * (i - 16))) & 0xf);
+    }
+
+    // Returns the given part (0: country, 1: area, 2: number)
+    private String part(int index) {
+        var s = new StringBuilder(16);
+        int part = 0;
+        for (int i = 0; i < NIBBLES; ++i) {
+            int n = nibble(high, low, i);
+            if (n == 0) {
+                if (part == index) {
+                    break;
+                }
+                ++part;
+            } else if (part == index) {
+                s.append((char)('0' + n - 1));
+            }
+        }
+        return s.toString();
+    }
+
+    // Checks that the longs are a valid packed number: three non-empty parts with
+    // digits only, and nothing but padding after them.
+    private static void validate(long high, long low) {
+        int part = 0;
+        int digits = 0;
+        for (int i = 0; i < NIBBLES; ++i) {
+            int n = nibble(high, low, i);
+            if (part == 3) {
+                if (n != 0) {
+                    throw new IllegalArgumentException("Digits after the number");
+                }
+            } else if (n > 10) {
+                throw new IllegalArgumentException("Invalid digit");
+            } else if (n == 0) {
+                if (digits == 0) {
+                    throw new IllegalArgumentException("Empty part");
+                }
+                ++part;
+                digits = 0;
+            } else {
+                ++digits;
+            }
+        }
+        if (part < 2 || part == 2 && digits == 0) {
+            throw new IllegalArgumentException("Missing part");
+        }
+    }
+
+    public String getCountry() {
+        return part(0);
+    }
+
+    public String getArea() {
+        return part(1);
+    }
+
+    public String getNumber() {
+        return part(2);
+    }
+
+    public PhoneNumber toPhoneNumber() {
+        return new PhoneNumber(getCountry(), getArea(), getNumber());
+    }
+
+    @Override public boolean equals(Object obj) {
+        if (obj instanceof CompactPhoneNumber) {
+            var p = (CompactPhoneNumber)obj;
+            return high == p.high && low == p.low;
+        }
+        return false;
+    }
+
+    @Override public int hashCode() {
+        // The digits are in the high nibbles, mix them down
+        long h = high * 0x9E3779B97F4A7C15L + low;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    @Override public int compareTo(CompactPhoneNumber o) {
+        int c = Long.compareUnsigned(high, o.high);
+        return c != 0 ? c : Long.compareUnsigned(low, o.low);
+    }
+
+    @Override public String toString() {
+        return "+" + getCountry() + " (" + getArea() + ") " + getNumber();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        try {
+            validate(high, low);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.ObjectStreamException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+// A phone directory with a reverse index that can be shared between threads.
+//
+// Both indexes are ConcurrentHashMaps whose values are immutable sets. A change
+// builds a new set and swaps it in with compute(), which is atomic for the key,
+// so readers always see a complete set and never need a lock: lookup() and
+// reverseLookup() are a single get() of a concurrent map.
+//
+// Adding or removing a number of a name changes two entries though, one in
+// each index, and the two must not get out of step when two threads change the
+// same number at the same time. So writers also take a lock for the number.
+// Instead of one lock per number (too much memory) or a single lock for the
+// whole directory (writers would wait for each other all the time), there is a
+// fixed array of locks and every number maps to one of them: lock striping.
+// The locks are StampedLocks, so code that wants to see both indexes in a
+// consistent state (see agrees()) can read optimistically, without blocking
+// the writers, and only retry under the lock if a writer got in between.
+//
+// Operations on several numbers, like removeName() and replace(), are atomic
+// for every single number, but not as a whole.
+public class ConcurrentPhoneDirectory extends PhoneDirectory {
+    private static final long serialVersionUID = 1L;
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+
+    private final ConcurrentHashMap<String, Set<PhoneNumber>> forward;
+    private final transient ConcurrentHashMap<PhoneNumber, Set<String>> reverse = new ConcurrentHashMap<>();
+    private final transient StampedLock[] locks = new StampedLock[STRIPES];
+
+    public ConcurrentPhoneDirectory() {
+        this(new ConcurrentHashMap<>());
+    }
+
+    private ConcurrentPhoneDirectory(ConcurrentHashMap<String, Set<PhoneNumber>> forward) {
+        super(forward);
+        this.forward = forward;
+        for (int i = 0; i < locks.length; ++i) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    private StampedLock lockFor(PhoneNumber number) {
+        int h = number.hashCode();
+        // Mix the high bits in, the low ones alone may not differ enough
+        return locks[(h ^ (h >>> 16)) & (locks.length - 1)];
+    }
+
+    @Override public void add(String name, PhoneNumber number) {
+        var lock = lockFor(number);
+        long stamp = lock.writeLock();
+        try {
+            // Other numbers of the name may change concurrently (they have other
+            // locks), so compare inside compute()
+            var changed = new boolean[1];
+            forward.compute(name, (n, numbers) -> {
+                var result = with(numbers, number);
+                changed[0] = result != numbers;
+                return result;
+            });
+            if (changed[0]) {
+                reverse.compute(number, (n, names) -> with(names, name));
+                added(name, number);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override public boolean remove(String name, PhoneNumber number) {
+        var lock = lockFor(number);
+        long stamp = lock.writeLock();
+        try {
+            // Nobody else can add or remove this number while we hold its lock
+            if (!lookup(name).contains(number)) {
+                return false;
+            }
+            forward.computeIfPresent(name, (n, numbers) -> without(numbers, number));
+            reverse.computeIfPresent(number, (n, names) -> without(names, name));
+            removed(name, number);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override public Set<PhoneNumber> removeName(String name) {
+        var removed = new HashSet<PhoneNumber>();
+        for (var number : lookup(name)) {
+            if (remove(name, number)) {
+                removed.add(number);
+            }
+        }
+        return removed;
+    }
+
+    @Override public void replace(String name, Collection<PhoneNumber> numbers) {
+        for (var number : lookup(name)) {
+            if (!numbers.contains(number)) {
+                remove(name, number);
+            }
+        }
+        numbers.forEach(number -> add(name, number));
+    }
+
+    // The sets in forward are immutable already
+    @Override public Set<PhoneNumber> lookup(String name) {
+        return forward.getOrDefault(name, Set.of());
+    }
+
+    @Override public Set<String> reverseLookup(PhoneNumber number) {
+        return reverse.getOrDefault(number, Set.of());
+    }
+
+    // Checks that the two indexes agree on whether the name has the number. A
+    // writer may be halfway through changing them, so we read optimistically and
+    // only trust the result if no writer took the number's lock in the meantime.
+    boolean agrees(String name, PhoneNumber number) {
+        var lock = lockFor(number);
+        long stamp = lock.tryOptimisticRead();
+        boolean agrees = lookup(name).contains(number) == reverseLookup(number).contains(name);
+        if (lock.validate(stamp)) {
+            return agrees;
+        }
+        stamp = lock.readLock();
+        try {
+            return lookup(name).contains(number) == reverseLookup(number).contains(name);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Returns the set with the element added, the same set if it's already in it
+    private static <T> Set<T> with(Set<T> set, T element) {
+        if (set == null) {
+            return Set.of(element);
+        }
+        if (set.contains(element)) {
+            return set;
+        }
+        var copy = new HashSet<T>(set);
+        copy.add(element);
+        return Set.copyOf(copy);
+    }
+
+    // Returns the set without the element, or null (removing the map entry) if
+    // nothing is left
+    private static <T> Set<T> without(Set<T> set, T element) {
+        if (!set.contains(element)) {
+            return set;
+        }
+        if (set.size() == 1) {
+            return null;
+        }
+        var copy = new HashSet<T>(set);
+        copy.remove(element);
+        return Set.copyOf(copy);
+    }
+
+    // Only the forward index is serialized, the rest is rebuilt
+    private Object readResolve() throws ObjectStreamException {
+        var dir = new ConcurrentPhoneDirectory();
+        forward.forEach((name, numbers) -> numbers.forEach(number -> dir.add(name, number)));
+        return dir;
+    }
+}
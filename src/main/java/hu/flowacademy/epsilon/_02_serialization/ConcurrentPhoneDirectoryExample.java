@@ -0,0 +1,97 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Hammers a ConcurrentPhoneDirectory with writer threads adding, removing and
+// replacing numbers of a small set of names - so they constantly collide -
+// while reader threads check that the forward and reverse indexes agree. At the
+// end, with the writers stopped, the two indexes are compared in full. Run with
+// -Dwriters=..., -Dreaders=... and -Dseconds=....
+public class ConcurrentPhoneDirectoryExample {
+    private static final int NAMES = 32;
+    private static final int NUMBERS = 64;
+
+    public static void main(String[] args) throws Exception {
+        int writers = Integer.getInteger("writers", 4);
+        int readers = Integer.getInteger("readers", 4);
+        long seconds = Long.getLong("seconds", 5);
+
+        var dir = new ConcurrentPhoneDirectory();
+        var names = new String[NAMES];
+        for (int i = 0; i < NAMES; ++i) {
+            names[i] = "name" + i;
+        }
+        var numbers = new PhoneNumber[NUMBERS];
+        for (int i = 0; i < NUMBERS; ++i) {
+            numbers[i] = new PhoneNumber("36", "30", String.valueOf(1000000 + i));
+        }
+
+        var stop = new AtomicBoolean();
+        var writes = new LongAdder();
+        var checks = new LongAdder();
+        var failures = new LongAdder();
+        var threads = new Thread[writers + readers];
+        for (int t = 0; t < writers; ++t) {
+            threads[t] = new Thread(() -> {
+                var random = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    var name = names[random.nextInt(NAMES)];
+                    var number = numbers[random.nextInt(NUMBERS)];
+                    int op = random.nextInt(100);
+                    if (op < 50) {
+                        dir.add(name, number);
+                    } else if (op < 90) {
+                        dir.remove(name, number);
+                    } else if (op < 95) {
+                        dir.replace(name, List.of(number, numbers[random.nextInt(NUMBERS)]));
+                    } else {
+                        dir.removeName(name);
+                    }
+                    writes.increment();
+                }
+            });
+        }
+        for (int t = writers; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                var random = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    var name = names[random.nextInt(NAMES)];
+                    var number = numbers[random.nextInt(NUMBERS)];
+                    if (!dir.agrees(name, number)) {
+                        failures.increment();
+                    }
+                    // The plain lookups must never block, and never see a set that is
+                    // being modified
+                    for (var n : dir.reverseLookup(number)) {
+                        n.length();
+                    }
+                    dir.lookup(name).size();
+                    checks.increment();
+                }
+            });
+        }
+        for (var t : threads) {
+            t.start();
+        }
+        Thread.sleep(seconds * 1000);
+        stop.set(true);
+        for (var t : threads) {
+            t.join();
+        }
+
+        long mismatches = 0;
+        for (var number : numbers) {
+            if (!dir.reverseLookup(number).equals(dir.reverseLookupX(number))) {
+                ++mismatches;
+            }
+        }
+        System.out.println(String.format("%d writes, %d concurrent checks, %d failed", writes.sum(), checks.sum(), failures.sum()));
+        System.out.println("Final state: " + mismatches + " numbers where the reverse index disagrees with a full scan");
+        if (failures.sum() > 0 || mismatches > 0) {
+            System.exit(1);
+        }
+    }
+}
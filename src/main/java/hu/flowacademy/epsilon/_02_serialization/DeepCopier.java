@@ -0,0 +1,353 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+// Deep copies object graphs much faster than running them through serialization
+// like Copy.copy does, which writes every class description and field into a
+// byte array and then parses all of it back.
+//
+// The way to copy each class is worked out once, the first time we meet it, and
+// cached in a ClassValue:
+// - immutable classes like String, the boxed primitives and PhoneNumber, and
+//   enums, aren't copied at all, the copy shares them,
+// - arrays and the common collections are copied element by element,
+// - the immutable collections of List.of, Set.of, Map.of and copyOf are shared
+//   if their elements are, and rebuilt from the copied elements otherwise,
+// - the phone directories with indexes, whose indexes are transient or
+//   serialized in another shape, are rebuilt by adding the entries to a new
+//   directory of the same class, which builds the indexes too,
+// - other Serializable classes that have a no-arg constructor, no transient
+//   fields and none of the serialization hooks (writeObject, readObject,
+//   writeReplace, readResolve...) are created with that constructor, and their
+//   fields are set to copies of the original's,
+// - everything else is copied by serialization, like Copy.copy.
+//
+// That's not exactly what serialization does: it doesn't run the constructors
+// of Serializable classes, nor their field initializers, only the no-arg
+// constructor of the first superclass that isn't Serializable. Here the class's
+// own constructor runs, with whatever it does besides setting fields, which is
+// why Copy.copy doesn't use DeepCopier: it's for classes with plain
+// constructors, like the phone directories, where the result is the same.
+// Transient fields would keep the constructor's values instead of the
+// defaults, so classes that have them are serialized.
+//
+// Copies are kept in an identity map during a copy, so an object that's
+// referenced several times, or is part of a cycle, is copied just once, and the
+// copy has the same shape as the original. The exception is a subgraph that's
+// copied by serialization: it gets its own copies of everything it references.
+public final class DeepCopier {
+    private interface Strategy {
+        Object copy(Object o, DeepCopier copier) throws IOException, ClassNotFoundException;
+    }
+
+    private static final Set<Class<?>> IMMUTABLE = Set.of(String.class, Boolean.class, Character.class,
+        Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class,
+        BigDecimal.class, UUID.class, Instant.class, Duration.class, LocalDate.class, LocalTime.class,
+        LocalDateTime.class, PhoneNumber.class, CompactPhoneNumber.class);
+
+    private static final Strategy SHARE = (o, copier) -> o;
+    private static final Strategy SERIALIZE = (o, copier) -> copier.register(o, Copy.copy(o));
+
+    private static final Map<Class<?>, Strategy> COLLECTIONS = Map.of(
+        ArrayList.class, collection(ArrayList::new),
+        LinkedList.class, collection(size -> new LinkedList<>()),
+        ArrayDeque.class, collection(ArrayDeque::new),
+        HashSet.class, collection(size -> new HashSet<>(capacity(size))),
+        LinkedHashSet.class, collection(size -> new LinkedHashSet<>(capacity(size))),
+        HashMap.class, map(size -> new HashMap<>(capacity(size))),
+        ConcurrentHashMap.class, map(ConcurrentHashMap::new),
+        TreeSet.class, (o, copier) -> copier.copyElements((TreeSet<?>)o,
+            new TreeSet<>((Comparator<?>)copier.copyObject(((TreeSet<?>)o).comparator()))),
+        TreeMap.class, (o, copier) -> copier.copyEntries((TreeMap<?, ?>)o,
+            new TreeMap<>((Comparator<?>)copier.copyObject(((TreeMap<?, ?>)o).comparator()))));
+
+    // Subclasses of PhoneDirectory are only copied this way if they're listed
+    // here: one with state of its own besides the indexes would lose it
+    private static final Map<Class<?>, Strategy> DIRECTORIES = Map.of(
+        FastReversePhoneDirectory.class, directory(FastReversePhoneDirectory::new),
+        FastSmallReversePhoneDirectory.class, directory(FastSmallReversePhoneDirectory::new),
+        SearchablePhoneDirectory.class, directory(SearchablePhoneDirectory::new),
+        ConcurrentPhoneDirectory.class, directory(ConcurrentPhoneDirectory::new));
+
+    // There's no public name for the classes of List.of() and the like
+    private static final String IMMUTABLE_COLLECTIONS = List.of().getClass().getName().replaceFirst("\\$.*", "");
+
+    private static final ClassValue<Strategy> STRATEGIES = new ClassValue<>() {
+        @Override protected Strategy computeValue(Class<?> c) {
+            return strategyFor(c);
+        }
+    };
+
+    private final Map<Object, Object> copies = new IdentityHashMap<>();
+
+    private DeepCopier() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T copy(T o) throws IOException, ClassNotFoundException {
+        return (T)new DeepCopier().copyObject(o);
+    }
+
+    private Object copyObject(Object o) throws IOException, ClassNotFoundException {
+        if (o == null) {
+            return null;
+        }
+        var copy = copies.get(o);
+        if (copy != null) {
+            return copy;
+        }
+        return STRATEGIES.get(o.getClass()).copy(o, this);
+    }
+
+    // Strategies must register the copy before copying anything the original
+    // references, so cycles find it
+    private Object register(Object original, Object copy) {
+        copies.put(original, copy);
+        return copy;
+    }
+
+    private static Strategy strategyFor(Class<?> c) {
+        if (IMMUTABLE.contains(c) || Enum.class.isAssignableFrom(c) || c == Class.class) {
+            return SHARE;
+        }
+        if (c.isArray()) {
+            return c.getComponentType().isPrimitive() ? DeepCopier::copyPrimitiveArray : DeepCopier::copyArray;
+        }
+        var strategy = COLLECTIONS.get(c);
+        if (strategy != null) {
+            return strategy;
+        }
+        strategy = DIRECTORIES.get(c);
+        if (strategy != null) {
+            return strategy;
+        }
+        if (c.getName().startsWith(IMMUTABLE_COLLECTIONS + "$")) {
+            return immutableCollection(c);
+        }
+        return fieldByField(c);
+    }
+
+    private static Object copyPrimitiveArray(Object o, DeepCopier copier) {
+        int length = Array.getLength(o);
+        var copy = Array.newInstance(o.getClass().getComponentType(), length);
+        System.arraycopy(o, 0, copy, 0, length);
+        return copier.register(o, copy);
+    }
+
+    private static Object copyArray(Object o, DeepCopier copier) throws IOException, ClassNotFoundException {
+        var array = (Object[])o;
+        var copy = (Object[])Array.newInstance(o.getClass().getComponentType(), array.length);
+        copier.register(o, copy);
+        for (int i = 0; i < array.length; ++i) {
+            copy[i] = copier.copyObject(array[i]);
+        }
+        return copy;
+    }
+
+    // The size a hash based collection needs to hold size elements without
+    // rehashing
+    private static int capacity(int size) {
+        return (int)(size / 0.75f) + 1;
+    }
+
+    private static Strategy collection(IntFunction<Collection<Object>> factory) {
+        return (o, copier) -> {
+            var original = (Collection<?>)o;
+            return copier.copyElements(original, factory.apply(original.size()));
+        };
+    }
+
+    private static Strategy map(IntFunction<Map<Object, Object>> factory) {
+        return (o, copier) -> {
+            var original = (Map<?, ?>)o;
+            return copier.copyEntries(original, factory.apply(original.size()));
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object copyElements(Collection<?> original, Collection<?> copy)
+            throws IOException, ClassNotFoundException {
+        register(original, copy);
+        for (var e : original) {
+            ((Collection<Object>)copy).add(copyObject(e));
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object copyEntries(Map<?, ?> original, Map<?, ?> copy) throws IOException, ClassNotFoundException {
+        register(original, copy);
+        for (var e : original.entrySet()) {
+            ((Map<Object, Object>)copy).put(copyObject(e.getKey()), copyObject(e.getValue()));
+        }
+        return copy;
+    }
+
+    // The names and numbers are immutable, so the copy shares them
+    private static Strategy directory(Supplier<PhoneDirectory> factory) {
+        return (o, copier) -> {
+            var copy = factory.get();
+            copier.register(o, copy);
+            ((PhoneDirectory)o).getEntries().forEach((name, numbers) ->
+                numbers.forEach(number ->
+                    copy.add(name, number)
+                )
+            );
+            return copy;
+        };
+    }
+
+    // These can't hold themselves, so there's no need to register them before
+    // copying the elements. They can't hold nulls either, except for the lists
+    // of Stream.toList(), which we leave to serialization.
+    private static Strategy immutableCollection(Class<?> c) {
+        if (List.class.isAssignableFrom(c)) {
+            return (o, copier) -> {
+                var elements = copier.copyAll((List<?>)o);
+                if (elements == null) {
+                    return SERIALIZE.copy(o, copier);
+                }
+                return copier.register(o, elements == o ? o : List.copyOf(elements));
+            };
+        } else if (Set.class.isAssignableFrom(c)) {
+            return (o, copier) -> {
+                var elements = copier.copyAll((Set<?>)o);
+                return copier.register(o, elements == o ? o : Set.copyOf(elements));
+            };
+        } else if (Map.class.isAssignableFrom(c)) {
+            return (o, copier) -> {
+                var original = (Map<?, ?>)o;
+                var entries = new HashMap<>(capacity(original.size()));
+                boolean changed = false;
+                for (var e : original.entrySet()) {
+                    var key = copier.copyObject(e.getKey());
+                    var value = copier.copyObject(e.getValue());
+                    changed |= key != e.getKey() || value != e.getValue();
+                    entries.put(key, value);
+                }
+                return copier.register(o, changed ? Map.copyOf(entries) : o);
+            };
+        }
+        return SERIALIZE;
+    }
+
+    // Copies the elements. Returns the original itself if every copy is the
+    // original element, and null if there's a null element.
+    private Collection<?> copyAll(Collection<?> original) throws IOException, ClassNotFoundException {
+        var elements = new ArrayList<>(original.size());
+        boolean changed = false;
+        for (var e : original) {
+            if (e == null) {
+                return null;
+            }
+            var copy = copyObject(e);
+            changed |= copy != e;
+            elements.add(copy);
+        }
+        return changed ? elements : original;
+    }
+
+    private static Strategy fieldByField(Class<?> c) {
+        if (!Serializable.class.isAssignableFrom(c) || Externalizable.class.isAssignableFrom(c)) {
+            // Serialization will either handle it or throw the exception it should
+            return SERIALIZE;
+        }
+        var fields = new ArrayList<Field>();
+        Constructor<?> constructor;
+        try {
+            for (var k = c; k != null; k = k.getSuperclass()) {
+                if (hasSerializationHooks(k)) {
+                    return SERIALIZE;
+                }
+                if (!Serializable.class.isAssignableFrom(k)) {
+                    // Serialization doesn't touch the fields of the non-serializable
+                    // superclasses either, their constructor sets them
+                    continue;
+                }
+                for (var f : k.getDeclaredFields()) {
+                    int modifiers = f.getModifiers();
+                    if ((modifiers & Modifier.STATIC) != 0) {
+                        continue;
+                    }
+                    if ((modifiers & Modifier.TRANSIENT) != 0) {
+                        return SERIALIZE;
+                    }
+                    f.setAccessible(true);
+                    fields.add(f);
+                }
+            }
+            constructor = c.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException | RuntimeException e) {
+            // No no-arg constructor, or a class of a module that doesn't let us in
+            return SERIALIZE;
+        }
+        var all = fields.toArray(new Field[0]);
+        return (o, copier) -> {
+            Object copy;
+            try {
+                copy = copier.register(o, constructor.newInstance());
+                for (var f : all) {
+                    f.set(copy, f.getType().isPrimitive() ? f.get(o) : copier.copyObject(f.get(o)));
+                }
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Constructor of " + c.getName() + " failed", e.getCause());
+            }
+            return copy;
+        };
+    }
+
+    private static boolean hasSerializationHooks(Class<?> c) {
+        for (var m : c.getDeclaredMethods()) {
+            switch (m.getName()) {
+                case "writeObject":
+                case "readObject":
+                case "readObjectNoData":
+                case "writeReplace":
+                case "readResolve":
+                    return true;
+                default:
+            }
+        }
+        try {
+            c.getDeclaredField("serialPersistentFields");
+            return true;
+        } catch (NoSuchFieldException e) {
+            return false;
+        }
+    }
+}
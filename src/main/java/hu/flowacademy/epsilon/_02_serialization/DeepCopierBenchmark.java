@@ -0,0 +1,47 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+// Compares deep copying phone directories with serialization and with
+// DeepCopier. Prints the best of a few rounds after as many warmup rounds. Run
+// with -Dentries=... and -Drounds=....
+public class DeepCopierBenchmark {
+    private interface Copier {
+        Object copy(Object o) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int entries = Integer.getInteger("entries", 100_000);
+        int rounds = Integer.getInteger("rounds", 5);
+        var plain = PhoneDirectoryCodecBenchmark.randomDirectory(entries);
+        var reverse = new FastReversePhoneDirectory();
+        var smallReverse = new FastSmallReversePhoneDirectory();
+        var concurrent = new ConcurrentPhoneDirectory();
+        for (var dir : new PhoneDirectory[] { reverse, smallReverse, concurrent }) {
+            plain.getEntries().forEach((name, numbers) -> numbers.forEach(number -> dir.add(name, number)));
+        }
+
+        System.out.println(String.format("%d entries, best of %d rounds", entries, rounds));
+        System.out.println(String.format("%-32s %15s %12s", "directory", "serialization", "DeepCopier"));
+        for (var dir : new PhoneDirectory[] { plain, reverse, smallReverse, concurrent }) {
+            long serialized = best(rounds, dir, Copy::copy);
+            long copied = best(rounds, dir, DeepCopier::copy);
+            System.out.println(String.format("%-32s %12.1f ms %9.1f ms",
+                dir.getClass().getSimpleName(), serialized / 1e6, copied / 1e6));
+        }
+    }
+
+    private static long best(int rounds, PhoneDirectory dir, Copier copier) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2 * rounds; ++i) {
+            long start = System.nanoTime();
+            var copy = copier.copy(dir);
+            long time = System.nanoTime() - start;
+            if (copy == dir || !copy.equals(dir)) {
+                throw new AssertionError("Not a copy");
+            }
+            if (i >= rounds) {
+                best = Math.min(best, time);
+            }
+        }
+        return best;
+    }
+}
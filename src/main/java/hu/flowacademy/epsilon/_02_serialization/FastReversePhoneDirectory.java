@@ -1,20 +1,55 @@
 package hu.flowacademy.epsilon._02_serialization;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.Map;
 import java.util.Set;
 
 public class FastReversePhoneDirectory extends PhoneDirectory {
-    private final Map<PhoneNumber, Set<String>> reverse = new HashMap<>();
+    // The UID the class had before ReverseIndex, so files written back then
+    // can still be read
+    private static final long serialVersionUID = 2481102781167744053L;
 
-    @Override public void add(String name, PhoneNumber number) {
-        super.add(name, number);
-        reverse.computeIfAbsent(number, n -> new HashSet<>()).add(name);
+    // The index used to be a Map<PhoneNumber, Set<String>> field named reverse.
+    // It's still written in that shape: old files can be read, and the old
+    // class can read new ones.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("reverse", Map.class)
+    };
+
+    private transient ReverseIndex reverse = new ReverseIndex();
+
+    @Override protected void added(String name, PhoneNumber number) {
+        reverse.add(number, name);
+    }
+
+    @Override protected void removed(String name, PhoneNumber number) {
+        reverse.remove(number, name);
     }
 
     @Override public Set<String> reverseLookup(PhoneNumber number) {
-        return Collections.unmodifiableSet(reverse.getOrDefault(number, Set.of()));
+        return reverse.lookup(number);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("reverse", reverse.toMap());
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        var map = (Map<PhoneNumber, Set<String>>)in.readFields().get("reverse", null);
+        if (map == null) {
+            throw new InvalidObjectException("Reverse index missing");
+        }
+        reverse = new ReverseIndex();
+        map.forEach((number, names) ->
+            names.forEach(name ->
+                reverse.add(number, name)
+            )
+        );
     }
 }
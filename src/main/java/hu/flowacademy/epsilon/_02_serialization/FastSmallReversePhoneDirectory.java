@@ -1,36 +1,34 @@
 package hu.flowacademy.epsilon._02_serialization;
 
 import java.io.IOException;
-import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 public class FastSmallReversePhoneDirectory extends PhoneDirectory {
-    private transient Map<PhoneNumber, Set<String>> reverse = new HashMap<>();
+    // The UID the class had before ReverseIndex, so files written back then
+    // can still be read
+    private static final long serialVersionUID = -8425569857337953754L;
 
-    @Override public void add(String name, PhoneNumber number) {
-        super.add(name, number);
-        addReverse(name, number);
+    private transient ReverseIndex reverse = new ReverseIndex();
+
+    @Override protected void added(String name, PhoneNumber number) {
+        reverse.add(number, name);
     }
 
-    private void addReverse(String name, PhoneNumber number) {
-        reverse.computeIfAbsent(number, n -> new HashSet<>()).add(name);
+    @Override protected void removed(String name, PhoneNumber number) {
+        reverse.remove(number, name);
     }
 
     @Override public Set<String> reverseLookup(PhoneNumber number) {
-        return Collections.unmodifiableSet(reverse.getOrDefault(number, Set.of()));
+        return reverse.lookup(number);
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
-        reverse = new HashMap<>();
+        reverse = new ReverseIndex();
         getEntries().forEach((name, numbers) ->
             numbers.forEach(number ->
-                addReverse(name, number)
+                reverse.add(number, name)
             )
         );
     }
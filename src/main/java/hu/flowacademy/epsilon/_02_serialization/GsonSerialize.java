@@ -44,5 +44,21 @@ public class GsonSerialize {
         var p2 = dir2.getEntries().get("Anna").iterator().next();
         System.out.println("dir2 has the same PhoneNumber object  for Attila and Anna: " + (p1 == p2));
         System.out.println("dir2 has equal    PhoneNumber objects for Attila and Anna: " + (p1.equals(p2)));
+
+        // The hand-written adapters of PhoneDirectoryGson give the same JSON
+        // without reflection, and can stream it instead of building a String.
+        var streaming = PhoneDirectoryGson.register(new GsonBuilder().setPrettyPrinting()).create();
+        System.out.println("streaming adapters give the same JSON: " + json.equals(streaming.toJson(dir)));
+        System.out.println("streaming adapters parse it back: " + dir.equals(streaming.fromJson(json, PhoneDirectory.class)));
+
+        // With an interner, the adapters give back a single PhoneNumber object for
+        // equal numbers, like the one Attila and Anna share in dir
+        var interner = new PhoneInterner();
+        var interning = PhoneDirectoryGson.register(new GsonBuilder(), interner).create();
+        PhoneDirectory dir3 = interning.fromJson(json, PhoneDirectory.class);
+        var p5 = dir3.getEntries().get("Attila").iterator().next();
+        var p6 = dir3.getEntries().get("Anna").iterator().next();
+        System.out.println("dir3 (interned) has the same PhoneNumber object for Attila and Anna: " + (p5 == p6));
+        System.out.println("interner: " + interner);
     }
 }
@@ -0,0 +1,29 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+// An ObjectInputStream that replaces every String and PhoneNumber it reads
+// with the canonical instance from a PhoneInterner. resolveObject is called for
+// each object right after it's read, before anything referencing it gets it, so
+// the whole graph ends up with the pooled instances, the directories' own
+// readObject and readResolve methods included.
+public class InterningObjectInputStream extends ObjectInputStream {
+    private final PhoneInterner interner;
+
+    public InterningObjectInputStream(InputStream in, PhoneInterner interner) throws IOException {
+        super(in);
+        this.interner = interner;
+        enableResolveObject(true);
+    }
+
+    @Override protected Object resolveObject(Object obj) {
+        if (obj instanceof String) {
+            return interner.string((String)obj);
+        } else if (obj instanceof PhoneNumber) {
+            return interner.number((PhoneNumber)obj);
+        }
+        return obj;
+    }
+}
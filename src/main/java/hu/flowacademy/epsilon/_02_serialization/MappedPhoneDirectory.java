@@ -0,0 +1,443 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// A read-only phone directory that lives in a memory mapped file instead of
+// the heap.
+//
+// Loading a big directory with Java serialization takes long, and the result
+// is hundreds of millions of objects: HashMap entries, HashSets, Strings,
+// PhoneNumbers. Here write() lays the directory out in a file once, and open()
+// just maps that file: startup takes no time no matter how big the directory
+// is, the operating system pages the data in as lookups touch it, and the heap
+// only holds this object. Phone numbers are stored packed into two longs (see
+// CompactPhoneNumber), names as UTF-8 bytes.
+//
+// Both lookups use hash tables in the file too. They use open addressing: the
+// table is just an array of slots holding record ids, a key's hash gives the
+// slot to start at, and on a collision we try the next slot until we find the
+// key or an empty slot. The tables are kept at most half full, so a lookup
+// rarely looks at more than a slot or two, and there are no pointers to
+// follow, only a few reads from one place in the file.
+//
+// A MappedByteBuffer can't be bigger than 2 GB, so the file is mapped in
+// segments of 1 GB, and reads that straddle two segments are put together from
+// single bytes.
+//
+// The file layout, all numbers little-endian:
+// - header (HEADER_SIZE bytes): magic, version, counts, table sizes, and the
+//   offsets of the following sections
+// - name records, NAME_RECORD bytes each: the offset of the name's string, and
+//   the index and count of its numbers in the number list
+// - number list: the packed numbers of all the names, grouped by name
+// - number records, NUMBER_RECORD bytes each: a distinct packed number, and the
+//   index and count of its names in the name list
+// - name list: name ids, grouped by number
+// - name hash table, then number hash table: int slots holding id + 1, 0 if
+//   empty
+// - strings: every name as an int length and the UTF-8 bytes
+public final class MappedPhoneDirectory implements PhoneLookup {
+    private static final int MAGIC = 0x50484452; // "PHDR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 128;
+    private static final int NAME_RECORD = 16;
+    private static final int NUMBER_RECORD = 24;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    private final MappedByteBuffer[] segments;
+    private final int nameCount;
+    private final int numberCount;
+    private final int nameSlots;
+    private final int numberSlots;
+    private final long names;
+    private final long numberList;
+    private final long numbers;
+    private final long nameList;
+    private final long nameTable;
+    private final long numberTable;
+
+    private MappedPhoneDirectory(MappedByteBuffer[] segments) throws IOException {
+        this.segments = segments;
+        if (getInt(0) != MAGIC) {
+            throw new IOException("Not a phone directory file");
+        }
+        if (getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + getInt(4));
+        }
+        nameCount = getInt(8);
+        numberCount = getInt(12);
+        nameSlots = getInt(16);
+        numberSlots = getInt(20);
+        names = getLong(24);
+        numberList = getLong(32);
+        numbers = getLong(40);
+        nameList = getLong(48);
+        nameTable = getLong(56);
+        numberTable = getLong(64);
+    }
+
+    public static MappedPhoneDirectory open(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            var segments = new MappedByteBuffer[(int)((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; ++i) {
+                long start = (long)i << SEGMENT_BITS;
+                // The mapping stays valid after the channel is closed
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a phone directory file");
+            }
+            return new MappedPhoneDirectory(segments);
+        }
+    }
+
+    @Override public Set<PhoneNumber> lookup(String name) {
+        int id = findName(name.getBytes(StandardCharsets.UTF_8));
+        return id == -1 ? Set.of() : numbersOf(id);
+    }
+
+    @Override public Set<String> reverseLookup(PhoneNumber number) {
+        var packed = CompactPhoneNumber.of(number);
+        long high = packed.getHigh();
+        long low = packed.getLow();
+        int mask = numberSlots - 1;
+        for (int slot = (int)hash(high, low) & mask; ; slot = (slot + 1) & mask) {
+            int id = getInt(numberTable + 4L * slot) - 1;
+            if (id == -1) {
+                return Set.of();
+            }
+            long record = numbers + (long)id * NUMBER_RECORD;
+            if (getLong(record) == high && getLong(record + 8) == low) {
+                int first = getInt(record + 16);
+                int count = getInt(record + 20);
+                var result = new String[count];
+                for (int i = 0; i < count; ++i) {
+                    result[i] = nameOf(getInt(nameList + 4L * (first + i)));
+                }
+                return Set.of(result);
+            }
+        }
+    }
+
+    // A view of the file, nothing is loaded up front
+    @Override public Map<String, Set<PhoneNumber>> getEntries() {
+        return new AbstractMap<>() {
+            @Override public Set<Entry<String, Set<PhoneNumber>>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override public Iterator<Entry<String, Set<PhoneNumber>>> iterator() {
+                        return new Iterator<>() {
+                            private int next;
+
+                            @Override public boolean hasNext() {
+                                return next < nameCount;
+                            }
+
+                            @Override public Entry<String, Set<PhoneNumber>> next() {
+                                if (next >= nameCount) {
+                                    throw new NoSuchElementException();
+                                }
+                                int id = next++;
+                                return new SimpleImmutableEntry<>(nameOf(id), numbersOf(id));
+                            }
+                        };
+                    }
+
+                    @Override public int size() {
+                        return nameCount;
+                    }
+                };
+            }
+
+            @Override public Set<PhoneNumber> get(Object key) {
+                if (!(key instanceof String)) {
+                    return null;
+                }
+                int id = findName(((String)key).getBytes(StandardCharsets.UTF_8));
+                return id == -1 ? null : numbersOf(id);
+            }
+
+            @Override public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override public int size() {
+                return nameCount;
+            }
+        };
+    }
+
+    private int findName(byte[] name) {
+        int mask = nameSlots - 1;
+        for (int slot = (int)hash(name) & mask; ; slot = (slot + 1) & mask) {
+            int id = getInt(nameTable + 4L * slot) - 1;
+            if (id == -1 || nameEquals(id, name)) {
+                return id;
+            }
+        }
+    }
+
+    private boolean nameEquals(int id, byte[] name) {
+        long string = getLong(names + (long)id * NAME_RECORD);
+        if (getInt(string) != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; ++i) {
+            if (getByte(string + 4 + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String nameOf(int id) {
+        long string = getLong(names + (long)id * NAME_RECORD);
+        var bytes = new byte[getInt(string)];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = getByte(string + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Set<PhoneNumber> numbersOf(int id) {
+        long record = names + (long)id * NAME_RECORD;
+        int first = getInt(record + 8);
+        int count = getInt(record + 12);
+        var result = new PhoneNumber[count];
+        for (int i = 0; i < count; ++i) {
+            long entry = numberList + 16L * (first + i);
+            result[i] = CompactPhoneNumber.fromPacked(getLong(entry), getLong(entry + 8)).toPhoneNumber();
+        }
+        return Set.of(result);
+    }
+
+    private byte getByte(long offset) {
+        return segments[(int)(offset >>> SEGMENT_BITS)].get((int)(offset & (SEGMENT_SIZE - 1)));
+    }
+
+    private int getInt(long offset) {
+        int position = (int)(offset & (SEGMENT_SIZE - 1));
+        if (position <= SEGMENT_SIZE - 4) {
+            return segments[(int)(offset >>> SEGMENT_BITS)].getInt(position);
+        }
+        int value = 0;
+        for (int i = 3; i >= 0; --i) {
+            value = (value << 8) | (getByte(offset + i) & 0xff);
+        }
+        return value;
+    }
+
+    private long getLong(long offset) {
+        int position = (int)(offset & (SEGMENT_SIZE - 1));
+        if (position <= SEGMENT_SIZE - 8) {
+            return segments[(int)(offset >>> SEGMENT_BITS)].getLong(position);
+        }
+        return (getInt(offset) & 0xffffffffL) | ((long)getInt(offset + 4) << 32);
+    }
+
+    // FNV-1a
+    private static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (var b : bytes) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return h ^ (h >>> 32);
+    }
+
+    private static long hash(long high, long low) {
+        long h = (high * 0x9E3779B97F4A7C15L) ^ low;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 31);
+    }
+
+    // A table at most half full, with a power of two size so we can mask
+    private static int slotsFor(int count) {
+        return Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+    }
+
+    // Lays out the directory in a file for open(). This builds the layout on the
+    // heap first, so it needs memory proportional to the directory, but only
+    // once, not on every startup.
+    public static void write(PhoneLookup dir, Path file) throws IOException {
+        var entries = dir.getEntries();
+        int nameCount = entries.size();
+        var nameBytes = new byte[nameCount][];
+        var numberOffsets = new int[nameCount + 1];
+        var packed = new ArrayList<CompactPhoneNumber>();
+        var numberIds = new HashMap<CompactPhoneNumber, Integer>();
+        var distinct = new ArrayList<CompactPhoneNumber>();
+        int id = 0;
+        for (var e : entries.entrySet()) {
+            nameBytes[id] = e.getKey().getBytes(StandardCharsets.UTF_8);
+            numberOffsets[id] = packed.size();
+            for (var number : e.getValue()) {
+                var p = CompactPhoneNumber.of(number);
+                packed.add(p);
+                if (numberIds.putIfAbsent(p, distinct.size()) == null) {
+                    distinct.add(p);
+                }
+            }
+            ++id;
+        }
+        numberOffsets[nameCount] = packed.size();
+        int numberCount = distinct.size();
+
+        // Group the name ids by number: count the names of every number, turn the
+        // counts into start offsets, then fill in.
+        var nameOffsets = new int[numberCount + 1];
+        for (var p : packed) {
+            ++nameOffsets[numberIds.get(p) + 1];
+        }
+        for (int i = 0; i < numberCount; ++i) {
+            nameOffsets[i + 1] += nameOffsets[i];
+        }
+        var nameList = new int[packed.size()];
+        var fill = nameOffsets.clone();
+        for (int name = 0; name < nameCount; ++name) {
+            for (int i = numberOffsets[name]; i < numberOffsets[name + 1]; ++i) {
+                nameList[fill[numberIds.get(packed.get(i))]++] = name;
+            }
+        }
+
+        int nameSlots = slotsFor(nameCount);
+        var nameTable = new int[nameSlots];
+        for (int name = 0; name < nameCount; ++name) {
+            int slot = (int)hash(nameBytes[name]) & (nameSlots - 1);
+            while (nameTable[slot] != 0) {
+                slot = (slot + 1) & (nameSlots - 1);
+            }
+            nameTable[slot] = name + 1;
+        }
+        int numberSlots = slotsFor(numberCount);
+        var numberTable = new int[numberSlots];
+        for (int number = 0; number < numberCount; ++number) {
+            var p = distinct.get(number);
+            int slot = (int)hash(p.getHigh(), p.getLow()) & (numberSlots - 1);
+            while (numberTable[slot] != 0) {
+                slot = (slot + 1) & (numberSlots - 1);
+            }
+            numberTable[slot] = number + 1;
+        }
+
+        long namesOffset = HEADER_SIZE;
+        long numberListOffset = namesOffset + (long)nameCount * NAME_RECORD;
+        long numbersOffset = numberListOffset + 16L * packed.size();
+        long nameListOffset = numbersOffset + (long)numberCount * NUMBER_RECORD;
+        long nameTableOffset = nameListOffset + 4L * nameList.length;
+        long numberTableOffset = nameTableOffset + 4L * nameSlots;
+        long stringsOffset = numberTableOffset + 4L * numberSlots;
+
+        try (var out = new Output(file)) {
+            out.putInt(MAGIC).putInt(VERSION).putInt(nameCount).putInt(numberCount)
+                .putInt(nameSlots).putInt(numberSlots)
+                .putLong(namesOffset).putLong(numberListOffset).putLong(numbersOffset).putLong(nameListOffset)
+                .putLong(nameTableOffset).putLong(numberTableOffset);
+            out.padTo(HEADER_SIZE);
+            long string = stringsOffset;
+            for (int name = 0; name < nameCount; ++name) {
+                out.putLong(string).putInt(numberOffsets[name]).putInt(numberOffsets[name + 1] - numberOffsets[name]);
+                string += 4 + nameBytes[name].length;
+            }
+            for (var p : packed) {
+                out.putLong(p.getHigh()).putLong(p.getLow());
+            }
+            for (int number = 0; number < numberCount; ++number) {
+                var p = distinct.get(number);
+                out.putLong(p.getHigh()).putLong(p.getLow())
+                    .putInt(nameOffsets[number]).putInt(nameOffsets[number + 1] - nameOffsets[number]);
+            }
+            for (int name : nameList) {
+                out.putInt(name);
+            }
+            for (int slot : nameTable) {
+                out.putInt(slot);
+            }
+            for (int slot : numberTable) {
+                out.putInt(slot);
+            }
+            for (var bytes : nameBytes) {
+                out.putInt(bytes.length).put(bytes);
+            }
+        }
+    }
+
+    // Buffered little-endian output to a file
+    private static final class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Output(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        Output putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        Output putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            return this;
+        }
+
+        Output put(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; ) {
+                ensure(1);
+                int n = Math.min(bytes.length - i, buffer.remaining());
+                buffer.put(bytes, i, n);
+                i += n;
+            }
+            return this;
+        }
+
+        void padTo(long offset) throws IOException {
+            while (written + buffer.position() < offset) {
+                ensure(1);
+                buffer.put((byte)0);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
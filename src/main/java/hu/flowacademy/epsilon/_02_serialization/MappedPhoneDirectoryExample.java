@@ -0,0 +1,52 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.nio.file.Files;
+import java.util.Random;
+
+// Builds a random directory, writes it out for MappedPhoneDirectory, then
+// compares loading it with mapping it and checks that the lookups give the same
+// results. Run with -Dentries=... to change the size.
+public class MappedPhoneDirectoryExample {
+    public static void main(String[] args) throws Exception {
+        int count = Integer.getInteger("entries", 1_000_000);
+        var random = new Random(42);
+        var dir = new FastReversePhoneDirectory();
+        var numbers = new PhoneNumber[count];
+        for (int i = 0; i < count; ++i) {
+            numbers[i] = new PhoneNumber("36", String.valueOf(20 + random.nextInt(50)),
+                String.valueOf(1_000_000 + random.nextInt(9_000_000)));
+            // Some people share numbers, some have several
+            dir.add("Person " + random.nextInt(count / 2 + 1), numbers[i]);
+        }
+
+        var file = Files.createTempFile("phones", ".dir");
+        try {
+            long t1 = System.nanoTime();
+            MappedPhoneDirectory.write(dir, file);
+            long t2 = System.nanoTime();
+            var mapped = MappedPhoneDirectory.open(file);
+            long t3 = System.nanoTime();
+            System.out.println(String.format("%d names, file %d MB, written in %d ms, opened in %d us",
+                dir.getEntries().size(), Files.size(file) >> 20, (t2 - t1) / 1_000_000, (t3 - t2) / 1000));
+
+            int mismatches = 0;
+            long t4 = System.nanoTime();
+            for (int i = 0; i < count; ++i) {
+                var number = numbers[random.nextInt(count)];
+                if (!mapped.reverseLookup(number).equals(dir.reverseLookup(number))) {
+                    ++mismatches;
+                }
+                var name = "Person " + random.nextInt(count / 2 + 1);
+                if (!mapped.lookup(name).equals(dir.lookup(name))) {
+                    ++mismatches;
+                }
+            }
+            long t5 = System.nanoTime();
+            System.out.println(String.format("%d lookups in %d ms, %d mismatches",
+                2 * count, (t5 - t4) / 1_000_000, mismatches));
+            System.out.println("Entries equal: " + mapped.getEntries().equals(dir.getEntries()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
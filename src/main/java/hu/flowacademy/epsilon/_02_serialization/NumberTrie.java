@@ -0,0 +1,184 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// A digit trie of phone numbers, for searching them by prefix. A number is the
+// path of its country code, a separator, its area code, another separator, its
+// number and a last separator; the node at the end of the path holds the
+// PhoneNumber. Finding the numbers starting with a prefix is walking down the
+// prefix, a step per digit, and then everything below that node is a match, so
+// the time it takes doesn't depend on how many other numbers there are.
+//
+// Children are indexed like the nibbles of CompactPhoneNumber: 0 for the
+// separator and d + 1 for digit d. Visiting them in index order gives the
+// numbers in the order of PhoneNumber.compareTo.
+class NumberTrie {
+    private static final int SEPARATOR = 0;
+    private static final int FANOUT = 11;
+
+    private static final class Node {
+        Node[] children;
+        int childCount;
+        PhoneNumber number;
+    }
+
+    private final Node root = new Node();
+    private int modCount;
+
+    void add(PhoneNumber number) {
+        var node = root;
+        for (var part : parts(number)) {
+            for (int i = 0; i <= part.length(); ++i) {
+                node = child(node, index(part, i));
+            }
+        }
+        if (node.number == null) {
+            node.number = number;
+            ++modCount;
+        }
+    }
+
+    void remove(PhoneNumber number) {
+        // Remember the path, to drop the nodes that become empty
+        var path = new ArrayDeque<Node>();
+        var indexes = new ArrayDeque<Integer>();
+        var node = root;
+        for (var part : parts(number)) {
+            for (int i = 0; i <= part.length(); ++i) {
+                int index = index(part, i);
+                if (node.children == null || node.children[index] == null) {
+                    return;
+                }
+                path.push(node);
+                indexes.push(index);
+                node = node.children[index];
+            }
+        }
+        if (node.number == null) {
+            return;
+        }
+        node.number = null;
+        ++modCount;
+        while (!path.isEmpty() && node.number == null && node.childCount == 0) {
+            node = path.pop();
+            node.children[indexes.pop()] = null;
+            if (--node.childCount == 0) {
+                node.children = null;
+            }
+        }
+    }
+
+    // The numbers with the given country code, area code and number, where any of
+    // them may be null to mean anything. A part followed by a non-null one must
+    // match exactly, the last non-null one is a prefix. So ("36", "30", "12")
+    // finds the numbers of the 30 area in Hungary starting with 12, and ("3",
+    // null, null) the ones of all the countries with a code starting with 3.
+    // The stream is lazy and sorted; changing the trie while it's used makes it
+    // throw ConcurrentModificationException.
+    Stream<PhoneNumber> startingWith(String country, String area, String number) {
+        if (country == null && (area != null || number != null) || area == null && number != null) {
+            throw new IllegalArgumentException("Only the last parts can be null");
+        }
+        var node = root;
+        var parts = new String[] { country, area, number };
+        for (int p = 0; p < parts.length && parts[p] != null && node != null; ++p) {
+            var part = parts[p];
+            boolean exact = p + 1 < parts.length && parts[p + 1] != null;
+            int length = exact ? part.length() + 1 : part.length();
+            for (int i = 0; i < length && node != null; ++i) {
+                int index = index(part, i);
+                if (index < 0 || index >= FANOUT) {
+                    return Stream.empty();
+                }
+                node = node.children == null ? null : node.children[index];
+            }
+        }
+        if (node == null) {
+            return Stream.empty();
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Walker(node),
+            Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    private static String[] parts(PhoneNumber number) {
+        return new String[] { number.getCountry(), number.getArea(), number.getNumber() };
+    }
+
+    // The index of the i-th character of the part, the separator after the last
+    private static int index(String part, int i) {
+        return i == part.length() ? SEPARATOR : part.charAt(i) - '0' + 1;
+    }
+
+    private static Node child(Node node, int index) {
+        if (node.children == null) {
+            node.children = new Node[FANOUT];
+        }
+        var child = node.children[index];
+        if (child == null) {
+            child = node.children[index] = new Node();
+            ++node.childCount;
+        }
+        return child;
+    }
+
+    // Depth first walk below a node, keeping the nodes being visited and the
+    // index of the next child to visit in each of them on a stack
+    private final class Walker implements Iterator<PhoneNumber> {
+        private final ArrayDeque<Node> nodes = new ArrayDeque<>();
+        private final ArrayDeque<int[]> nextChild = new ArrayDeque<>();
+        private final int expectedModCount = modCount;
+        private PhoneNumber next;
+
+        Walker(Node start) {
+            nodes.push(start);
+            nextChild.push(new int[1]);
+            next = start.number;
+            if (next == null) {
+                advance();
+            }
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && !nodes.isEmpty()) {
+                var node = nodes.peek();
+                var index = nextChild.peek();
+                while (node.children != null && index[0] < FANOUT && node.children[index[0]] == null) {
+                    ++index[0];
+                }
+                if (node.children == null || index[0] == FANOUT) {
+                    nodes.pop();
+                    nextChild.pop();
+                    continue;
+                }
+                var child = node.children[index[0]++];
+                nodes.push(child);
+                nextChild.push(new int[1]);
+                next = child.number;
+            }
+        }
+
+        @Override public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override public PhoneNumber next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            var n = next;
+            advance();
+            return n;
+        }
+    }
+}
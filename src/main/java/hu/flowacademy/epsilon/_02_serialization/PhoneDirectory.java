@@ -1,6 +1,8 @@
 package hu.flowacademy.epsilon._02_serialization;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -8,11 +10,82 @@ import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-public class PhoneDirectory implements Serializable {
-    private final Map<String, Set<PhoneNumber>> dir = new HashMap<>();
+public class PhoneDirectory implements Serializable, PhoneLookup {
+    // The UID the class had before the hooks and PhoneLookup, so files written
+    // back then can still be read
+    private static final long serialVersionUID = -4787712601509412359L;
+
+    private final Map<String, Set<PhoneNumber>> dir;
+
+    public PhoneDirectory() {
+        this(new HashMap<>());
+    }
+
+    // For subclasses that need a different map, like a concurrent one. They must
+    // override all the methods that modify the directory if their sets can't be
+    // modified the way they are here.
+    protected PhoneDirectory(Map<String, Set<PhoneNumber>> dir) {
+        this.dir = dir;
+    }
 
     public void add(String name, PhoneNumber number) {
-        dir.computeIfAbsent(name, n -> new HashSet<>()).add(number);
+        if (dir.computeIfAbsent(name, n -> new HashSet<>()).add(number)) {
+            added(name, number);
+        }
+    }
+
+    public boolean remove(String name, PhoneNumber number) {
+        var numbers = dir.get(name);
+        if (numbers == null || !numbers.remove(number)) {
+            return false;
+        }
+        if (numbers.isEmpty()) {
+            dir.remove(name);
+        }
+        removed(name, number);
+        return true;
+    }
+
+    // Removes the name with all its numbers, and returns the numbers
+    public Set<PhoneNumber> removeName(String name) {
+        var numbers = dir.remove(name);
+        if (numbers == null) {
+            return Set.of();
+        }
+        numbers.forEach(number -> removed(name, number));
+        return Collections.unmodifiableSet(numbers);
+    }
+
+    // Makes the given numbers the numbers of the name. Numbers the name already
+    // had are left alone, so subclasses only hear about the actual changes.
+    public void replace(String name, Collection<PhoneNumber> numbers) {
+        var old = dir.get(name);
+        if (old != null) {
+            var gone = new ArrayList<PhoneNumber>();
+            for (var it = old.iterator(); it.hasNext(); ) {
+                var number = it.next();
+                if (!numbers.contains(number)) {
+                    it.remove();
+                    gone.add(number);
+                }
+            }
+            // Like in remove, the hooks see the directory as it is after the
+            // change, without the name if it has no numbers left
+            if (old.isEmpty()) {
+                dir.remove(name);
+            }
+            gone.forEach(number -> removed(name, number));
+        }
+        numbers.forEach(number -> add(name, number));
+    }
+
+    // Called after a number was added to a name that didn't have it yet. Lets
+    // subclasses keep indexes in sync without rescanning the directory.
+    protected void added(String name, PhoneNumber number) {
+    }
+
+    // Called after a number was removed from a name
+    protected void removed(String name, PhoneNumber number) {
     }
 
     public Set<PhoneNumber> lookup(String name) {
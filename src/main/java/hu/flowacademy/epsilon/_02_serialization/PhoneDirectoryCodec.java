@@ -0,0 +1,337 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// A compact binary format for phone directories, much faster to write and read
+// than Java serialization, which describes every class and field in the stream,
+// goes through writeReplace/readResolve for every PhoneNumber, and rebuilds the
+// objects by reflection.
+//
+// The stream starts with a magic number and a version byte. Then come blocks,
+// each an int length and that many bytes holding whole entries, and finally an
+// empty block. A reader only ever needs one block in memory, so directories of
+// any size are streamed through a fixed size buffer, straight from and to NIO
+// channels.
+//
+// An entry is a name and its numbers. Numbers are mostly made up of country and
+// area codes that repeat all over the directory, so those go through a string
+// table: the first occurrence of a code is written out in full and gets the
+// next index, later ones are just that index. The subscriber number is written
+// as its length and its value, both as varints (7 bits per byte, the high bit
+// telling if more bytes follow), so a 7 digit number takes 4 bytes. Names are
+// written as UTF-8; they are the keys of the directory, so they don't repeat.
+//
+// All integers are varints:
+// - entry: name, number count, numbers
+// - name: length, UTF-8 bytes
+// - number: country code, area code, subscriber number
+// - code: 0 followed by length and ASCII digits for a new code, otherwise the
+//   index of an earlier one plus 1
+// - subscriber number: length, then the value if it has at most 18 digits,
+//   otherwise the ASCII digits
+public final class PhoneDirectoryCodec {
+    private static final int MAGIC = 0x50444952; // "PDIR"
+    private static final byte VERSION = 1;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    // Blocks are only bigger than BLOCK_SIZE for a single huge entry; this just
+    // keeps a corrupted length from making us allocate gigabytes. The encoder
+    // splits entries that wouldn't fit even into this.
+    private static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_VALUE_DIGITS = 18;
+
+    private PhoneDirectoryCodec() {
+    }
+
+    // Writes the whole directory to the channel.
+    public static void encode(PhoneLookup dir, WritableByteChannel channel) throws IOException {
+        var encoder = new Encoder(channel);
+        for (var e : dir.getEntries().entrySet()) {
+            encoder.write(e.getKey(), e.getValue());
+        }
+        encoder.finish();
+    }
+
+    // Reads a directory from the channel, adding its entries to the given one, so
+    // subclasses build their indexes as they go. Names and numbers come from the
+    // interner, unless it's null. Returns the directory.
+    public static <D extends PhoneDirectory> D decode(ReadableByteChannel channel, D dir, PhoneInterner interner)
+            throws IOException {
+        new Decoder(channel, interner).readAll(dir);
+        return dir;
+    }
+
+    public static PhoneDirectory decode(ReadableByteChannel channel) throws IOException {
+        return decode(channel, new PhoneDirectory(), null);
+    }
+
+    // Writes entries one by one, for exporting from something other than a
+    // PhoneLookup. Call finish() at the end.
+    public static final class Encoder {
+        private final WritableByteChannel channel;
+        private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        private final ByteBuffer length = ByteBuffer.allocate(4);
+        private final Map<String, Integer> codes = new HashMap<>();
+        // The codes defined by the entry being written
+        private final List<String> newCodes = new ArrayList<>();
+
+        public Encoder(WritableByteChannel channel) throws IOException {
+            this.channel = channel;
+            var header = ByteBuffer.allocate(5).putInt(MAGIC).put(VERSION).flip();
+            writeFully(header);
+        }
+
+        public void write(String name, Set<PhoneNumber> numbers) throws IOException {
+            write(name, (Collection<PhoneNumber>)numbers);
+        }
+
+        private void write(String name, Collection<PhoneNumber> numbers) throws IOException {
+            int start = block.position();
+            newCodes.clear();
+            try {
+                writeEntry(name, numbers);
+            } catch (BufferOverflowException e) {
+                // Doesn't fit in this block. Forget the half written entry, with the
+                // codes it defined, as their definitions are gone too.
+                block.position(start);
+                newCodes.forEach(codes::remove);
+                if (start > 0) {
+                    // Send what we have and retry in a fresh block
+                    flush();
+                    write(name, numbers);
+                } else if (block.capacity() * 2 <= MAX_BLOCK_SIZE) {
+                    // A huge entry: retry in a bigger block
+                    block = ByteBuffer.allocate(block.capacity() * 2);
+                    write(name, numbers);
+                } else if (numbers.size() > 1) {
+                    // Too big even for the biggest block the decoder accepts. Write
+                    // the numbers as two entries of the same name, which the decoder
+                    // adds up.
+                    var list = new ArrayList<>(numbers);
+                    int half = list.size() / 2;
+                    write(name, list.subList(0, half));
+                    write(name, list.subList(half, list.size()));
+                } else {
+                    throw new IllegalArgumentException("Entry too large, name of " + name.length() + " characters");
+                }
+                return;
+            }
+            if (block.position() >= BLOCK_SIZE - 1024) {
+                flush();
+            }
+        }
+
+        private void writeEntry(String name, Collection<PhoneNumber> numbers) {
+            writeString(name.getBytes(StandardCharsets.UTF_8));
+            putVarint(numbers.size());
+            for (var number : numbers) {
+                writeCode(number.getCountry());
+                writeCode(number.getArea());
+                writeDigits(number.getNumber());
+            }
+        }
+
+        private void writeCode(String code) {
+            var index = codes.get(code);
+            if (index != null) {
+                putVarint(index + 1);
+            } else {
+                putVarint(0);
+                writeString(code.getBytes(StandardCharsets.US_ASCII));
+                codes.put(code, codes.size());
+                newCodes.add(code);
+            }
+        }
+
+        private void writeDigits(String digits) {
+            putVarint(digits.length());
+            if (digits.length() <= MAX_VALUE_DIGITS) {
+                long value = 0;
+                for (int i = 0; i < digits.length(); ++i) {
+                    value = value * 10 + (digits.charAt(i) - '0');
+                }
+                putVarint(value);
+            } else {
+                block.put(digits.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        private void writeString(byte[] bytes) {
+            putVarint(bytes.length);
+            block.put(bytes);
+        }
+
+        private void putVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                block.put((byte)((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            block.put((byte)value);
+        }
+
+        // Writes the pending block and the terminating empty one.
+        public void finish() throws IOException {
+            flush();
+            length.clear();
+            writeFully(length.putInt(0).flip());
+        }
+
+        private void flush() throws IOException {
+            if (block.position() == 0) {
+                return;
+            }
+            length.clear();
+            writeFully(length.putInt(block.position()).flip());
+            writeFully(block.flip());
+            block.clear();
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // Reads the entries of a stream, one block at a time.
+    public static final class Decoder {
+        private final ReadableByteChannel channel;
+        private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        private final List<String> codes = new ArrayList<>();
+        private final PhoneInterner interner;
+
+        public Decoder(ReadableByteChannel channel) throws IOException {
+            this(channel, null);
+        }
+
+        public Decoder(ReadableByteChannel channel, PhoneInterner interner) throws IOException {
+            this.channel = channel;
+            this.interner = interner;
+            var header = readFully(ByteBuffer.allocate(5));
+            if (header.getInt() != MAGIC) {
+                throw new StreamCorruptedException("Not a phone directory stream");
+            }
+            byte version = header.get();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("Unsupported version " + version);
+            }
+        }
+
+        public void readAll(PhoneDirectory dir) throws IOException {
+            for (;;) {
+                int length = readFully(ByteBuffer.allocate(4)).getInt();
+                if (length == 0) {
+                    return;
+                }
+                if (length < 0 || length > MAX_BLOCK_SIZE) {
+                    throw new StreamCorruptedException("Invalid block length " + length);
+                }
+                if (length > block.capacity()) {
+                    block = ByteBuffer.allocate(length);
+                }
+                block.clear().limit(length);
+                readFully(block);
+                try {
+                    while (block.hasRemaining()) {
+                        readEntry(dir);
+                    }
+                } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+                    var corrupted = new StreamCorruptedException("Malformed entry");
+                    corrupted.initCause(e);
+                    throw corrupted;
+                }
+            }
+        }
+
+        private void readEntry(PhoneDirectory dir) {
+            var name = readString(StandardCharsets.UTF_8);
+            if (interner != null) {
+                name = interner.string(name);
+            }
+            int count = getLength(block.remaining());
+            for (int i = 0; i < count; ++i) {
+                var country = readCode();
+                var area = readCode();
+                var number = new PhoneNumber(country, area, readDigits());
+                dir.add(name, interner == null ? number : interner.number(number));
+            }
+        }
+
+        private String readCode() {
+            int index = getLength(codes.size());
+            if (index != 0) {
+                return codes.get(index - 1);
+            }
+            var code = readString(StandardCharsets.US_ASCII);
+            codes.add(code);
+            return code;
+        }
+
+        private String readDigits() {
+            int length = getLength(Math.max(MAX_VALUE_DIGITS, block.remaining()));
+            if (length > MAX_VALUE_DIGITS) {
+                var bytes = new byte[length];
+                block.get(bytes);
+                return new String(bytes, StandardCharsets.US_ASCII);
+            }
+            long value = getVarint();
+            var digits = new char[length];
+            for (int i = length - 1; i >= 0; --i) {
+                digits[i] = (char)('0' + value % 10);
+                value /= 10;
+            }
+            return new String(digits);
+        }
+
+        private String readString(Charset charset) {
+            int length = getLength(block.remaining());
+            var s = new String(block.array(), block.arrayOffset() + block.position(), length, charset);
+            block.position(block.position() + length);
+            return s;
+        }
+
+        // Reads a length or count, which can't be more than max in a valid stream
+        private int getLength(int max) {
+            long value = getVarint();
+            if (value < 0 || value > max) {
+                throw new IllegalArgumentException("Invalid length " + value);
+            }
+            return (int)value;
+        }
+
+        private long getVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = block.get();
+                value |= (long)(b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        private ByteBuffer readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    throw new EOFException("Unexpected end of phone directory stream");
+                }
+            }
+            return buffer.flip();
+        }
+    }
+}
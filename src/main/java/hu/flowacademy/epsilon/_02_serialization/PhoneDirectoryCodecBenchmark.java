@@ -0,0 +1,118 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+// Compares saving and loading a phone directory with PhoneDirectoryCodec, Java
+// serialization, Gson and SnakeYAML. Every format runs a few rounds to let the
+// JIT compiler warm up, then we print the best time of the measured rounds and
+// the size of the data. Run with -Dentries=... and -Drounds=....
+public class PhoneDirectoryCodecBenchmark {
+    private interface Format {
+        byte[] save(PhoneDirectory dir) throws Exception;
+
+        PhoneDirectory load(byte[] data) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int entries = Integer.getInteger("entries", 100_000);
+        int rounds = Integer.getInteger("rounds", 5);
+        var dir = randomDirectory(entries);
+
+        var formats = new LinkedHashMap<String, Format>();
+        formats.put("PhoneDirectoryCodec", new Format() {
+            @Override public byte[] save(PhoneDirectory dir) throws Exception {
+                var out = new ByteArrayOutputStream();
+                PhoneDirectoryCodec.encode(dir, Channels.newChannel(out));
+                return out.toByteArray();
+            }
+
+            @Override public PhoneDirectory load(byte[] data) throws Exception {
+                return PhoneDirectoryCodec.decode(Channels.newChannel(new ByteArrayInputStream(data)));
+            }
+        });
+        formats.put("ObjectOutputStream", new Format() {
+            @Override public byte[] save(PhoneDirectory dir) throws Exception {
+                var out = new ByteArrayOutputStream();
+                try (var oout = new ObjectOutputStream(out)) {
+                    oout.writeObject(dir);
+                }
+                return out.toByteArray();
+            }
+
+            @Override public PhoneDirectory load(byte[] data) throws Exception {
+                try (var oin = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                    return (PhoneDirectory)oin.readObject();
+                }
+            }
+        });
+        var gson = new Gson();
+        formats.put("Gson", new Format() {
+            @Override public byte[] save(PhoneDirectory dir) {
+                return gson.toJson(dir).getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override public PhoneDirectory load(byte[] data) {
+                return gson.fromJson(new String(data, StandardCharsets.UTF_8), PhoneDirectory.class);
+            }
+        });
+        formats.put("SnakeYAML", new Format() {
+            @Override public byte[] save(PhoneDirectory dir) {
+                var out = new StringWriter();
+                PhoneDirectoryYaml.dump(dir, out);
+                return out.toString().getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override public PhoneDirectory load(byte[] data) {
+                return PhoneDirectoryYaml.load(new StringReader(new String(data, StandardCharsets.UTF_8)));
+            }
+        });
+
+        System.out.println(String.format("%d entries, best of %d rounds", entries, rounds));
+        System.out.println(String.format("%-20s %10s %10s %10s", "format", "bytes", "save ms", "load ms"));
+        for (var f : formats.entrySet()) {
+            var format = f.getValue();
+            byte[] data = null;
+            PhoneDirectory loaded = null;
+            long bestSave = Long.MAX_VALUE;
+            long bestLoad = Long.MAX_VALUE;
+            // The first rounds are warmup
+            for (int round = 0; round < 2 * rounds; ++round) {
+                long t1 = System.nanoTime();
+                data = format.save(dir);
+                long t2 = System.nanoTime();
+                loaded = format.load(data);
+                long t3 = System.nanoTime();
+                if (round >= rounds) {
+                    bestSave = Math.min(bestSave, t2 - t1);
+                    bestLoad = Math.min(bestLoad, t3 - t2);
+                }
+            }
+            if (!loaded.equals(dir)) {
+                throw new AssertionError(f.getKey() + " didn't load the same directory");
+            }
+            System.out.println(String.format("%-20s %10d %10.1f %10.1f",
+                f.getKey(), data.length, bestSave / 1e6, bestLoad / 1e6));
+        }
+    }
+
+    static PhoneDirectory randomDirectory(int entries) {
+        var random = new Random(42);
+        var dir = new PhoneDirectory();
+        for (int i = 0; i < entries; ++i) {
+            var number = new PhoneNumber(random.nextInt(4) == 0 ? "44" : "36",
+                String.valueOf(20 + random.nextInt(50)), String.valueOf(1_000_000 + random.nextInt(9_000_000)));
+            dir.add("Person " + random.nextInt(entries * 3 / 4 + 1), number);
+        }
+        return dir;
+    }
+}
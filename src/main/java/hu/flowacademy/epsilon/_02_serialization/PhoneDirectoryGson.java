@@ -0,0 +1,191 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.function.Supplier;
+
+// Hand-written Gson type adapters for PhoneDirectory and PhoneNumber. They
+// produce and accept the same JSON as Gson's reflective adapters:
+//
+//   {"dir": {"Attila": [{"country": "36", "area": "30", "number": "1234567"}]}}
+//
+// but don't look at private fields by reflection, and work directly on a
+// JsonWriter or JsonReader. Gson's toJson(Object) builds the whole document as
+// one String; toJson(Object, Appendable) with these adapters streams entry by
+// entry instead, so writing a huge directory - even a MappedPhoneDirectory that
+// isn't in memory at all - only needs the writer's buffer.
+public final class PhoneDirectoryGson {
+    private PhoneDirectoryGson() {
+    }
+
+    // Registers the adapters, so gson.toJson() and gson.fromJson() use them for
+    // PhoneDirectory and PhoneNumber.
+    public static GsonBuilder register(GsonBuilder builder) {
+        return register(builder, null);
+    }
+
+    // Same, but the adapters give back the interner's names and numbers.
+    public static GsonBuilder register(GsonBuilder builder, PhoneInterner interner) {
+        return builder
+            .registerTypeAdapter(PhoneNumber.class, new PhoneNumberAdapter(interner).nullSafe())
+            .registerTypeAdapter(PhoneDirectory.class,
+                new PhoneDirectoryAdapter<>(PhoneDirectory::new, interner).nullSafe());
+    }
+
+    public static Gson create() {
+        return register(new GsonBuilder()).create();
+    }
+
+    // Streams the directory into a file as JSON.
+    public static void write(PhoneLookup dir, Path file) throws IOException {
+        try (var writer = new JsonWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            writeDirectory(writer, dir);
+        }
+    }
+
+    // Reads a directory from a JSON file, adding the entries to the given one, so
+    // subclasses build their indexes as they go. The interner may be null.
+    public static <D extends PhoneDirectory> D read(Path file, D dir, PhoneInterner interner) throws IOException {
+        try (var reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            readDirectory(reader, dir, interner);
+        }
+        return dir;
+    }
+
+    public static PhoneDirectory read(Path file) throws IOException {
+        return read(file, new PhoneDirectory(), null);
+    }
+
+    static void writeDirectory(JsonWriter out, PhoneLookup dir) throws IOException {
+        out.beginObject();
+        out.name("dir");
+        out.beginObject();
+        for (var e : dir.getEntries().entrySet()) {
+            out.name(e.getKey());
+            writeNumbers(out, e.getValue());
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    private static void writeNumbers(JsonWriter out, Set<PhoneNumber> numbers) throws IOException {
+        out.beginArray();
+        for (var number : numbers) {
+            writeNumber(out, number);
+        }
+        out.endArray();
+    }
+
+    static void writeNumber(JsonWriter out, PhoneNumber number) throws IOException {
+        out.beginObject();
+        out.name("country").value(number.getCountry());
+        out.name("area").value(number.getArea());
+        out.name("number").value(number.getNumber());
+        out.endObject();
+    }
+
+    // Unknown members are skipped, like the reflective adapter does
+    static void readDirectory(JsonReader in, PhoneDirectory dir, PhoneInterner interner) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!in.nextName().equals("dir") || in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            in.beginObject();
+            while (in.hasNext()) {
+                var name = interner == null ? in.nextName() : interner.string(in.nextName());
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                in.beginArray();
+                while (in.hasNext()) {
+                    dir.add(name, readNumber(in, interner));
+                }
+                in.endArray();
+            }
+            in.endObject();
+        }
+        in.endObject();
+    }
+
+    static PhoneNumber readNumber(JsonReader in, PhoneInterner interner) throws IOException {
+        String country = null;
+        String area = null;
+        String number = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "country":
+                    country = in.nextString();
+                    break;
+                case "area":
+                    area = in.nextString();
+                    break;
+                case "number":
+                    number = in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        PhoneNumber phoneNumber;
+        try {
+            phoneNumber = new PhoneNumber(country, area, number);
+        } catch (RuntimeException e) {
+            // The constructor checks the digits, which the reflective adapter
+            // doesn't do at all
+            throw new IOException("Invalid phone number at " + in.getPath(), e);
+        }
+        return interner == null ? phoneNumber : interner.number(phoneNumber);
+    }
+
+    public static final class PhoneNumberAdapter extends TypeAdapter<PhoneNumber> {
+        private final PhoneInterner interner;
+
+        public PhoneNumberAdapter(PhoneInterner interner) {
+            this.interner = interner;
+        }
+
+        @Override public void write(JsonWriter out, PhoneNumber number) throws IOException {
+            writeNumber(out, number);
+        }
+
+        @Override public PhoneNumber read(JsonReader in) throws IOException {
+            return readNumber(in, interner);
+        }
+    }
+
+    // Creates directories with the given supplier, so it works for subclasses
+    // too. The interner may be null.
+    public static final class PhoneDirectoryAdapter<D extends PhoneDirectory> extends TypeAdapter<D> {
+        private final Supplier<D> factory;
+        private final PhoneInterner interner;
+
+        public PhoneDirectoryAdapter(Supplier<D> factory, PhoneInterner interner) {
+            this.factory = factory;
+            this.interner = interner;
+        }
+
+        @Override public void write(JsonWriter out, D dir) throws IOException {
+            writeDirectory(out, dir);
+        }
+
+        @Override public D read(JsonReader in) throws IOException {
+            var dir = factory.get();
+            readDirectory(in, dir, interner);
+            return dir;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+// Compares writing a directory to a JSON file and reading it back with Gson's
+// reflective adapters, going through one big String as GsonSerialize does, and
+// with the streaming adapters of PhoneDirectoryGson. Prints the best of a few
+// rounds after as many warmup rounds. Run with -Dentries=... and -Drounds=....
+public class PhoneDirectoryGsonBenchmark {
+    private interface Round {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int entries = Integer.getInteger("entries", 200_000);
+        int rounds = Integer.getInteger("rounds", 5);
+        var dir = PhoneDirectoryCodecBenchmark.randomDirectory(entries);
+        var reflective = new Gson();
+        var file = Files.createTempFile("phones", ".json");
+        try {
+            var loaded = new PhoneDirectory[1];
+            System.out.println(String.format("%d entries, best of %d rounds", entries, rounds));
+            System.out.println(String.format("%-12s %10s %10s %10s", "adapters", "bytes", "write ms", "read ms"));
+
+            long write = best(rounds, () ->
+                Files.writeString(file, reflective.toJson(dir), StandardCharsets.UTF_8));
+            long read = best(rounds, () ->
+                loaded[0] = reflective.fromJson(Files.readString(file, StandardCharsets.UTF_8), PhoneDirectory.class));
+            print("reflective", Files.size(file), write, read, dir.equals(loaded[0]));
+
+            write = best(rounds, () -> PhoneDirectoryGson.write(dir, file));
+            read = best(rounds, () -> loaded[0] = PhoneDirectoryGson.read(file));
+            print("streaming", Files.size(file), write, read, dir.equals(loaded[0]));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static long best(int rounds, Round round) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2 * rounds; ++i) {
+            long start = System.nanoTime();
+            round.run();
+            if (i >= rounds) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best;
+    }
+
+    private static void print(String name, long size, long write, long read, boolean equal) {
+        if (!equal) {
+            throw new AssertionError(name + " didn't read the same directory");
+        }
+        System.out.println(String.format("%-12s %10d %10.1f %10.1f", name, size, write / 1e6, read / 1e6));
+    }
+}
@@ -0,0 +1,644 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// A phone directory kept on disk, that doesn't write the whole directory for
+// every change like serializing it would.
+//
+// Every change is appended to a log file (a write-ahead log) and forced to the
+// disk before the method making it returns, so it survives a crash. Forcing is
+// slow, a few milliseconds on a disk, so changes made at the same time share a
+// force: the first thread that needs one writes and forces everything that's
+// waiting, the ones arriving meanwhile wait for it and then do the same for all
+// of them together. This is group commit: the more writers, the more changes
+// per force.
+//
+// A log only grows, so when it gets longer than maxLogBytes, a background thread
+// writes a snapshot of the whole directory with PhoneDirectoryCodec, and starts
+// a new log. Files belong to generations:
+// - snapshot-<g>.pdir is the directory when generation g started,
+// - log-<g>.wal has the changes made during generation g.
+// Opening the store loads the newest snapshot and replays the logs from its
+// generation on, so the time it takes is bounded by the size of the directory
+// plus maxLogBytes. Older files are deleted once a newer snapshot is complete,
+// and read back to check that it holds the same entries as the directory. A
+// snapshot is written to a temporary file and renamed when it's done, so a
+// crash can't leave a half written one behind.
+//
+// Log records are an int length, the CRC32 of the data and the data: the
+// operation, the name and the three parts of the number. A crash can leave the
+// last record half written; the CRC catches that, and the log is cut back to
+// the last complete record.
+//
+// If writing or forcing the log fails, we can't know which of the records got
+// to the disk, so the store stops: that call and every later one fails, and
+// the store has to be reopened, which brings back what's really on the disk.
+//
+// All methods are thread-safe. Writes are serialized, reads work on the same
+// lock, so they return copies. The directory is changed before the record is
+// on the disk, so reads wait for the changes they saw to be durable too, like
+// writes do; otherwise they could show a change a crash still loses.
+public final class PhoneDirectoryStore implements PhoneLookup, Closeable {
+    public static final long DEFAULT_MAX_LOG_BYTES = 64 * 1024 * 1024;
+
+    private static final int LOG_MAGIC = 0x504c4f47; // "PLOG"
+    private static final byte LOG_VERSION = 1;
+    private static final int LOG_HEADER = 5;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    // An operation and four strings written with writeUTF
+    private static final int MAX_RECORD = 1 + 4 * (2 + 65535);
+    private static final Pattern FILE_NAME = Pattern.compile("(snapshot|log)-(\\d+)\\.(pdir|wal)");
+
+    private final Path directory;
+    private final long maxLogBytes;
+    private final LoggingDirectory dir = new LoggingDirectory();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "phone-directory-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // All guarded by this
+    private long generation;
+    private FileChannel log;
+    private long logBytes;
+    // Records not written to the log yet
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    // Number of records appended so far, and how many of them are on the disk
+    private long appended;
+    private long durable;
+    private boolean syncing;
+    private boolean compacting;
+    private long syncs;
+    private boolean closed;
+    // Why writing the log failed, after which nothing is written anymore
+    private IOException failure;
+
+    // The directory, with the reverse index, that writes its changes to the log.
+    // It's part of the store and never serialized on its own.
+    @SuppressWarnings("serial")
+    private final class LoggingDirectory extends FastReversePhoneDirectory {
+        // Off while loading, when the changes are already on the disk
+        boolean logging;
+
+        @Override protected void added(String name, PhoneNumber number) {
+            super.added(name, number);
+            if (logging) {
+                append(ADD, name, number);
+            }
+        }
+
+        @Override protected void removed(String name, PhoneNumber number) {
+            super.removed(name, number);
+            if (logging) {
+                append(REMOVE, name, number);
+            }
+        }
+    }
+
+    private PhoneDirectoryStore(Path directory, long maxLogBytes) {
+        this.directory = directory;
+        this.maxLogBytes = maxLogBytes;
+    }
+
+    public static PhoneDirectoryStore open(Path directory) throws IOException {
+        return open(directory, DEFAULT_MAX_LOG_BYTES);
+    }
+
+    // Opens the store in the given directory, creating it if needed, and loads
+    // the directory from the newest snapshot and the logs.
+    public static PhoneDirectoryStore open(Path directory, long maxLogBytes) throws IOException {
+        Files.createDirectories(directory);
+        var store = new PhoneDirectoryStore(directory, maxLogBytes);
+        store.recover();
+        return store;
+    }
+
+    private synchronized void recover() throws IOException {
+        var snapshots = new TreeSet<Long>();
+        var logs = new TreeSet<Long>();
+        try (var files = Files.list(directory)) {
+            for (var file : (Iterable<Path>)files::iterator) {
+                var m = FILE_NAME.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    (m.group(1).equals("snapshot") ? snapshots : logs).add(Long.parseLong(m.group(2)));
+                } else if (file.getFileName().toString().endsWith(".tmp")) {
+                    // A snapshot we crashed while writing
+                    Files.delete(file);
+                }
+            }
+        }
+
+        long base = snapshots.isEmpty() ? 0 : snapshots.last();
+        if (!snapshots.isEmpty()) {
+            try (var in = FileChannel.open(snapshotFile(base), StandardOpenOption.READ)) {
+                PhoneDirectoryCodec.decode(in, dir, null);
+            }
+        }
+        generation = base;
+        var replay = logs.tailSet(base);
+        long valid = 0;
+        for (long g : replay) {
+            valid = replay(logFile(g));
+            generation = g;
+            // Only the last log can end with a half written record
+            if (g != replay.last() && valid != Files.size(logFile(g))) {
+                throw new StreamCorruptedException("Corrupted log " + logFile(g));
+            }
+        }
+        openLog(valid);
+        // Not the current generation: if we crashed while writing its snapshot,
+        // the one we loaded is still needed
+        deleteBefore(base);
+        dir.logging = true;
+    }
+
+    // Applies the records of the log, and returns the length of its valid part
+    private long replay(Path file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            try {
+                if (in.readInt() != LOG_MAGIC || in.readByte() != LOG_VERSION) {
+                    throw new StreamCorruptedException("Not a phone directory log: " + file);
+                }
+            } catch (EOFException e) {
+                // Crashed while creating it
+                return 0;
+            }
+            long valid = LOG_HEADER;
+            var crc = new CRC32();
+            for (;;) {
+                byte[] data;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD) {
+                        return valid;
+                    }
+                    data = in.readNBytes(length);
+                    if (data.length < length) {
+                        return valid;
+                    }
+                } catch (EOFException e) {
+                    return valid;
+                }
+                crc.reset();
+                crc.update(data);
+                if ((int)crc.getValue() != checksum) {
+                    return valid;
+                }
+                apply(data);
+                valid += 8 + data.length;
+            }
+        }
+    }
+
+    private void apply(byte[] data) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(data));
+        byte op = in.readByte();
+        var name = in.readUTF();
+        var number = new PhoneNumber(in.readUTF(), in.readUTF(), in.readUTF());
+        if (op == ADD) {
+            dir.add(name, number);
+        } else if (op == REMOVE) {
+            dir.remove(name, number);
+        } else {
+            throw new StreamCorruptedException("Unknown log operation " + op);
+        }
+    }
+
+    // Opens the log of the current generation for appending after its first
+    // valid bytes, cutting off a half written last record
+    private void openLog(long valid) throws IOException {
+        log = FileChannel.open(logFile(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (valid < LOG_HEADER) {
+            log.truncate(0);
+            var header = ByteBuffer.allocate(LOG_HEADER).putInt(LOG_MAGIC).put(LOG_VERSION).flip();
+            while (header.hasRemaining()) {
+                log.write(header);
+            }
+            valid = LOG_HEADER;
+        } else {
+            log.truncate(valid);
+        }
+        log.position(valid);
+        log.force(true);
+        syncDirectory();
+        logBytes = valid;
+    }
+
+    // The directory is changed before the change is appended to the log, so
+    // whatever the log can't hold must be rejected before that: a record with
+    // a null, or a string longer than writeUTF can write, would leave the change
+    // visible but not logged, and lost on the next start.
+    private static void checkLoggable(String name, PhoneNumber number) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(number);
+        if (utfLength(name) > 65535 || utfLength(number.getCountry()) > 65535
+                || utfLength(number.getArea()) > 65535 || utfLength(number.getNumber()) > 65535) {
+            throw new IllegalArgumentException("Name or number too long for the log");
+        }
+    }
+
+    // The length of the string in the modified UTF-8 of writeUTF
+    private static long utfLength(String s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            length += c >= 1 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    // Called by the directory for each change, under the lock of the store
+    private void append(byte op, String name, PhoneNumber number) {
+        try {
+            record.reset();
+            recordOut.writeByte(op);
+            recordOut.writeUTF(name);
+            recordOut.writeUTF(number.getCountry());
+            recordOut.writeUTF(number.getArea());
+            recordOut.writeUTF(number.getNumber());
+            crc.reset();
+            crc.update(record.toByteArray());
+            pendingOut.writeInt(record.size());
+            pendingOut.writeInt((int)crc.getValue());
+            record.writeTo(pendingOut);
+        } catch (IOException e) {
+            // Writing to a byte array doesn't fail
+            throw new UncheckedIOException(e);
+        }
+        ++appended;
+    }
+
+    public void add(String name, PhoneNumber number) throws IOException {
+        long seq;
+        synchronized (this) {
+            checkOpen();
+            checkLoggable(name, number);
+            dir.add(name, number);
+            seq = appended;
+        }
+        awaitDurable(seq);
+    }
+
+    public boolean remove(String name, PhoneNumber number) throws IOException {
+        long seq;
+        boolean removed;
+        synchronized (this) {
+            checkOpen();
+            removed = dir.remove(name, number);
+            seq = appended;
+        }
+        awaitDurable(seq);
+        return removed;
+    }
+
+    public Set<PhoneNumber> removeName(String name) throws IOException {
+        long seq;
+        Set<PhoneNumber> removed;
+        synchronized (this) {
+            checkOpen();
+            removed = Set.copyOf(dir.removeName(name));
+            seq = appended;
+        }
+        awaitDurable(seq);
+        return removed;
+    }
+
+    public void replace(String name, Collection<PhoneNumber> numbers) throws IOException {
+        long seq;
+        synchronized (this) {
+            checkOpen();
+            for (var number : numbers) {
+                checkLoggable(name, number);
+            }
+            dir.replace(name, numbers);
+            seq = appended;
+        }
+        awaitDurable(seq);
+    }
+
+    // Group commit: returns once the first seq records are on the disk. If no one
+    // is writing the log, this thread writes everything pending, otherwise it
+    // waits for the one that is, and checks again.
+    private void awaitDurable(long seq) throws IOException {
+        FileChannel channel;
+        byte[] batch;
+        long batchEnd;
+        synchronized (this) {
+            for (;;) {
+                if (durable >= seq) {
+                    return;
+                }
+                checkFailure();
+                if (!syncing) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the log", e);
+                }
+            }
+            // Once closed, close() has written everything, so we returned above
+            syncing = true;
+            channel = log;
+            batch = pending.toByteArray();
+            pending.reset();
+            batchEnd = appended;
+        }
+
+        IOException error = null;
+        try {
+            var buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            syncing = false;
+            if (error == null) {
+                durable = batchEnd;
+                logBytes += batch.length;
+                ++syncs;
+                if (logBytes > maxLogBytes && !compacting && !closed) {
+                    compacting = true;
+                    compactor.execute(this::compactQuietly);
+                }
+            } else {
+                // The batch is lost, maybe half written, and the records after it
+                // mustn't follow it in the log
+                failure = error;
+            }
+            notifyAll();
+            checkFailure();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Writing the log failed, the store has to be reopened", failure);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            snapshot(true);
+        } catch (IOException e) {
+            // The log just keeps growing, nothing is lost
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    // Writes a snapshot of the directory and starts a new log generation, then
+    // deletes the files of the older generations. Writes can go on while the
+    // snapshot is being written, only copying the entries blocks them.
+    public void snapshot() throws IOException {
+        snapshot(false);
+    }
+
+    // The compactor's snapshot does nothing on a closed store: close() can come
+    // while it's queued, and then the log is written out by close()
+    private void snapshot(boolean ifOpen) throws IOException {
+        long next;
+        var entries = new HashMap<String, Set<PhoneNumber>>();
+        synchronized (this) {
+            if (ifOpen && closed) {
+                return;
+            }
+            checkOpen();
+            // Everything in the current log must be on the disk before the next
+            // generation starts
+            while (syncing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the log", e);
+                }
+            }
+            writePending();
+            log.close();
+
+            ++generation;
+            next = generation;
+            openLog(0);
+            dir.getEntries().forEach((name, numbers) -> entries.put(name, Set.copyOf(numbers)));
+        }
+
+        var tmp = directory.resolve("snapshot-" + next + ".tmp");
+        try {
+            try (var out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                var encoder = new PhoneDirectoryCodec.Encoder(out);
+                for (var e : entries.entrySet()) {
+                    encoder.write(e.getKey(), e.getValue());
+                }
+                encoder.finish();
+                out.force(true);
+            }
+            // The older files go once this is in place, so make sure it can be
+            // read and has everything. If not, the logs are kept and replayed.
+            PhoneDirectory check;
+            try (var in = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                check = PhoneDirectoryCodec.decode(in);
+            }
+            if (!check.getEntries().equals(entries)) {
+                throw new StreamCorruptedException("Snapshot " + next + " doesn't match the directory");
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, snapshotFile(next), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        deleteBefore(next);
+    }
+
+    // Writes the pending records, under the lock, while no one else is syncing
+    private void writePending() throws IOException {
+        try {
+            var buffer = ByteBuffer.wrap(pending.toByteArray());
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+        } catch (IOException e) {
+            failure = e;
+            notifyAll();
+            throw e;
+        }
+        logBytes += pending.size();
+        pending.reset();
+        durable = appended;
+        notifyAll();
+    }
+
+    private void deleteBefore(long g) throws IOException {
+        var old = new ArrayList<Path>();
+        try (var files = Files.list(directory)) {
+            for (var file : (Iterable<Path>)files::iterator) {
+                var m = FILE_NAME.matcher(file.getFileName().toString());
+                if (m.matches() && Long.parseLong(m.group(2)) < g) {
+                    old.add(file);
+                }
+            }
+        }
+        for (var file : old) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Makes file creations and renames in the directory durable. Not every
+    // platform can open a directory; where it can't, there's nothing to do.
+    private void syncDirectory() {
+        try (var d = FileChannel.open(directory, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException e) {
+            // Not supported
+        }
+    }
+
+    private Path snapshotFile(long g) {
+        return directory.resolve("snapshot-" + g + ".pdir");
+    }
+
+    private Path logFile(long g) {
+        return directory.resolve("log-" + g + ".wal");
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Store closed");
+        }
+        checkFailure();
+    }
+
+    // Reads throw UncheckedIOException if the log failed before what they saw
+    // got to the disk
+    @Override public Set<PhoneNumber> lookup(String name) {
+        Set<PhoneNumber> numbers;
+        long seq;
+        synchronized (this) {
+            numbers = Set.copyOf(dir.lookup(name));
+            seq = appended;
+        }
+        awaitVisible(seq);
+        return numbers;
+    }
+
+    @Override public Set<String> reverseLookup(PhoneNumber number) {
+        Set<String> names;
+        long seq;
+        synchronized (this) {
+            names = Set.copyOf(dir.reverseLookup(number));
+            seq = appended;
+        }
+        awaitVisible(seq);
+        return names;
+    }
+
+    // A copy of all the entries, so it takes time proportional to the size of
+    // the directory
+    @Override public Map<String, Set<PhoneNumber>> getEntries() {
+        var entries = new HashMap<String, Set<PhoneNumber>>();
+        long seq;
+        synchronized (this) {
+            dir.getEntries().forEach((name, numbers) -> entries.put(name, Set.copyOf(numbers)));
+            seq = appended;
+        }
+        awaitVisible(seq);
+        return entries;
+    }
+
+    private void awaitVisible(long seq) {
+        try {
+            awaitDurable(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Number of times the log was forced to the disk
+    public synchronized long getSyncs() {
+        return syncs;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    @Override public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            while (syncing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            try {
+                // After a failure, the pending records' writers have been told
+                if (failure == null) {
+                    writePending();
+                }
+            } finally {
+                log.close();
+            }
+        }
+    }
+}
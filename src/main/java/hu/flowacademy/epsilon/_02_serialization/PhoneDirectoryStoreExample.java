@@ -0,0 +1,71 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Writes a PhoneDirectoryStore from several threads, then reopens it and checks
+// that it has the same entries. With more writers, more changes share a force
+// of the log. Run with -Dwriters=..., -Dops=... (per writer) and -DmaxLogBytes=...
+// (small values make it compact often).
+public class PhoneDirectoryStoreExample {
+    public static void main(String[] args) throws Exception {
+        int writers = Integer.getInteger("writers", 8);
+        int ops = Integer.getInteger("ops", 2_000);
+        long maxLogBytes = Long.getLong("maxLogBytes", 1024 * 1024);
+        var directory = Files.createTempDirectory("phones");
+        try {
+            var store = PhoneDirectoryStore.open(directory, maxLogBytes);
+            var threads = new Thread[writers];
+            long t1 = System.nanoTime();
+            for (int i = 0; i < writers; ++i) {
+                int seed = i;
+                threads[i] = new Thread(() -> {
+                    var random = new Random(seed);
+                    try {
+                        for (int j = 0; j < ops; ++j) {
+                            var name = "Person " + random.nextInt(10_000);
+                            var number = new PhoneNumber("36", String.valueOf(20 + random.nextInt(50)),
+                                String.valueOf(1_000_000 + random.nextInt(9_000_000)));
+                            if (random.nextInt(10) == 0) {
+                                store.removeName(name);
+                            } else {
+                                store.add(name, number);
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                threads[i].start();
+            }
+            for (var t : threads) {
+                t.join();
+            }
+            long t2 = System.nanoTime();
+            long syncs = store.getSyncs();
+            System.out.println(String.format("%d changes in %d ms, %.0f changes/s, %.1f changes per force, generation %d",
+                writers * ops, (t2 - t1) / 1_000_000, writers * ops / ((t2 - t1) / 1e9),
+                (double)writers * ops / syncs, store.getGeneration()));
+            var entries = store.getEntries();
+            store.close();
+
+            long t3 = System.nanoTime();
+            var reopened = PhoneDirectoryStore.open(directory, maxLogBytes);
+            long t4 = System.nanoTime();
+            System.out.println(String.format("Reopened in %d ms, same entries: %b",
+                (t4 - t3) / 1_000_000, entries.equals(reopened.getEntries())));
+            reopened.snapshot();
+            reopened.close();
+            var compacted = PhoneDirectoryStore.open(directory, maxLogBytes);
+            System.out.println("After a snapshot, same entries: " + entries.equals(compacted.getEntries()));
+            compacted.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+    }
+}
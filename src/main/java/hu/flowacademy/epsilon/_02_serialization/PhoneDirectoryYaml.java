@@ -0,0 +1,98 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.representer.Representer;
+
+// Saves and loads phone directories as YAML. SnakeYAML can't do it by itself:
+// PhoneDirectory has no bean properties, so dumping it gives an empty mapping,
+// and loading arbitrary classes from a document is rightly forbidden anyway.
+// So the directory goes through plain maps and lists, in the same shape as the
+// JSON of Gson:
+//
+//   Attila:
+//   - {country: '36', area: '30', number: '1234567'}
+public final class PhoneDirectoryYaml {
+    private PhoneDirectoryYaml() {
+    }
+
+    public static void dump(PhoneLookup dir, Writer writer) {
+        var plain = new LinkedHashMap<String, List<Map<String, String>>>();
+        dir.getEntries().forEach((name, numbers) -> {
+            var list = new ArrayList<Map<String, String>>(numbers.size());
+            for (var n : numbers) {
+                var number = new LinkedHashMap<String, String>(4);
+                number.put("country", n.getCountry());
+                number.put("area", n.getArea());
+                number.put("number", n.getNumber());
+                list.add(number);
+            }
+            plain.put(name, list);
+        });
+        yaml().dump(plain, writer);
+    }
+
+    // Adds the entries of the document to the given directory. Names and numbers
+    // come from the interner, unless it's null.
+    public static <D extends PhoneDirectory> D load(Reader reader, D dir, PhoneInterner interner) {
+        Object document = yaml().load(reader);
+        if (document == null) {
+            return dir;
+        }
+        if (!(document instanceof Map)) {
+            throw new YAMLException("Not a phone directory");
+        }
+        for (var e : ((Map<?, ?>)document).entrySet()) {
+            if (!(e.getKey() instanceof String) || !(e.getValue() instanceof List)) {
+                throw new YAMLException("Invalid entry " + e.getKey());
+            }
+            var name = interner == null ? (String)e.getKey() : interner.string((String)e.getKey());
+            for (var n : (List<?>)e.getValue()) {
+                var number = toNumber(name, n);
+                dir.add(name, interner == null ? number : interner.number(number));
+            }
+        }
+        return dir;
+    }
+
+    public static PhoneDirectory load(Reader reader) {
+        return load(reader, new PhoneDirectory(), null);
+    }
+
+    private static PhoneNumber toNumber(String name, Object o) {
+        if (o instanceof Map) {
+            var fields = (Map<?, ?>)o;
+            var country = fields.get("country");
+            var area = fields.get("area");
+            var number = fields.get("number");
+            if (country instanceof String && area instanceof String && number instanceof String) {
+                try {
+                    return new PhoneNumber((String)country, (String)area, (String)number);
+                } catch (IllegalArgumentException e) {
+                    throw new YAMLException("Invalid phone number of " + name, e);
+                }
+            }
+        }
+        throw new YAMLException("Invalid phone number of " + name);
+    }
+
+    // Yaml objects aren't thread-safe, so every call makes its own
+    private static Yaml yaml() {
+        var loaderOptions = new LoaderOptions();
+        // The default limit of 3 MB is for untrusted input, a directory can be
+        // much bigger
+        loaderOptions.setCodePointLimit(Integer.MAX_VALUE);
+        var dumperOptions = new DumperOptions();
+        return new Yaml(new SafeConstructor(loaderOptions), new Representer(dumperOptions), dumperOptions,
+            loaderOptions);
+    }
+}
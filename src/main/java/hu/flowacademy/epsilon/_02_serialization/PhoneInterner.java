@@ -0,0 +1,33 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+// Pools for the strings and phone numbers of loaded directories. Loading makes
+// a new object for everything it reads: a number shared by a household becomes
+// as many equal PhoneNumbers as there are people in it, and a name read from a
+// second file is a second String. The loaders that take a PhoneInterner give
+// back the pooled instances instead, so each distinct value is in memory once.
+//
+// The same interner can be used for several loads, and from several threads.
+public final class PhoneInterner {
+    private final WeakInterner<String> strings = new WeakInterner<>();
+    private final WeakInterner<PhoneNumber> numbers = new WeakInterner<>();
+
+    public String string(String s) {
+        return strings.intern(s);
+    }
+
+    public PhoneNumber number(PhoneNumber number) {
+        return numbers.intern(number);
+    }
+
+    public WeakInterner<String> getStrings() {
+        return strings;
+    }
+
+    public WeakInterner<PhoneNumber> getNumbers() {
+        return numbers;
+    }
+
+    @Override public String toString() {
+        return "strings: " + strings + ", numbers: " + numbers;
+    }
+}
@@ -0,0 +1,14 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.util.Map;
+import java.util.Set;
+
+// The read side of a phone directory, shared by the in-memory PhoneDirectory
+// and the file backed MappedPhoneDirectory.
+public interface PhoneLookup {
+    Set<PhoneNumber> lookup(String name);
+
+    Set<String> reverseLookup(PhoneNumber number);
+
+    Map<String, Set<PhoneNumber>> getEntries();
+}
@@ -6,11 +6,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.Objects;
-import java.util.regex.Pattern;
 
 public class PhoneNumber implements Comparable<PhoneNumber>, Serializable {
-    private static final Pattern DIGITS_ONLY = Pattern.compile("^\\d+$");
-
     private final String country;
     private final String area;
     private final String number;
@@ -51,11 +48,19 @@ public class PhoneNumber implements Comparable<PhoneNumber>, Serializable {
         return number;
     }
 
+    // A plain loop instead of a regular expression: no Matcher allocated for
+    // every check
     private static String checkNumber(String n) {
         Objects.requireNonNull(n);
-        if (!DIGITS_ONLY.matcher(n).matches()) {
+        if (n.isEmpty()) {
             throw new IllegalArgumentException("String must contain only digits");
         }
+        for (int i = 0; i < n.length(); ++i) {
+            char c = n.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("String must contain only digits");
+            }
+        }
         return n;
     }
 
@@ -70,8 +75,12 @@ public class PhoneNumber implements Comparable<PhoneNumber>, Serializable {
         }
     }
 
+    // Same value as Objects.hash(country, area, number), without allocating an
+    // array for the varargs on every call
     @Override public int hashCode() {
-        return Objects.hash(country, area, number);
+        int h = 31 + country.hashCode();
+        h = 31 * h + area.hashCode();
+        return 31 * h + number.hashCode();
     }
 
     @Override public String toString() {
@@ -0,0 +1,73 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Maps phone numbers to the names that have them, for the reverse lookup
+// directories. Almost every number belongs to a single name, and with tens of
+// millions of numbers a HashSet for each would cost far more memory than the
+// names themselves. So a number with one name maps straight to that name, and
+// only numbers shared by several names get a set.
+class ReverseIndex {
+    // Values are either a String or a Set<String> of at least two names
+    private final Map<PhoneNumber, Object> names = new HashMap<>();
+
+    @SuppressWarnings("unchecked")
+    void add(PhoneNumber number, String name) {
+        names.merge(number, name, (old, n) -> {
+            if (old instanceof String) {
+                if (old.equals(n)) {
+                    return old;
+                }
+                var set = new HashSet<String>(4);
+                set.add((String)old);
+                set.add((String)n);
+                return set;
+            }
+            ((Set<String>)old).add((String)n);
+            return old;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    void remove(PhoneNumber number, String name) {
+        names.computeIfPresent(number, (n, old) -> {
+            if (old instanceof String) {
+                return old.equals(name) ? null : old;
+            }
+            var set = (Set<String>)old;
+            set.remove(name);
+            return set.size() == 1 ? set.iterator().next() : set;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    Set<String> lookup(PhoneNumber number) {
+        var found = names.get(number);
+        if (found == null) {
+            return Set.of();
+        }
+        if (found instanceof String) {
+            return Set.of((String)found);
+        }
+        return Collections.unmodifiableSet((Set<String>)found);
+    }
+
+    // The index with a set for every number, the shape FastReversePhoneDirectory
+    // serializes
+    @SuppressWarnings("unchecked")
+    Map<PhoneNumber, Set<String>> toMap() {
+        var map = new HashMap<PhoneNumber, Set<String>>((int)(names.size() / 0.75f) + 1);
+        names.forEach((number, found) -> {
+            if (found instanceof String) {
+                map.put(number, new HashSet<>(Set.of((String)found)));
+            } else {
+                map.put(number, new HashSet<>((Set<String>)found));
+            }
+        });
+        return map;
+    }
+}
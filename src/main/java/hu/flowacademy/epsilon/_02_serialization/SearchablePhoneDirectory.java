@@ -0,0 +1,54 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+// A directory that can also find names and numbers by prefix, without looking
+// at the others. Names are kept in a TreeSet too, where the ones with a prefix
+// are a range starting at the prefix; numbers in a NumberTrie.
+//
+// Both searches return lazy streams: they only walk as far as what's taken from
+// them, so searching with a short prefix and a limit is as fast as with a long
+// one. Like iterators, they must not be used after changing the directory.
+public class SearchablePhoneDirectory extends FastReversePhoneDirectory {
+    private static final long serialVersionUID = 1L;
+
+    private transient TreeSet<String> names = new TreeSet<>();
+    private transient NumberTrie numbers = new NumberTrie();
+
+    @Override protected void added(String name, PhoneNumber number) {
+        super.added(name, number);
+        names.add(name);
+        numbers.add(number);
+    }
+
+    @Override protected void removed(String name, PhoneNumber number) {
+        super.removed(name, number);
+        if (!getEntries().containsKey(name)) {
+            names.remove(name);
+        }
+        if (reverseLookup(number).isEmpty()) {
+            numbers.remove(number);
+        }
+    }
+
+    // The names starting with the prefix, in alphabetical order
+    public Stream<String> namesStartingWith(String prefix) {
+        return names.tailSet(prefix, true).stream().takeWhile(name -> name.startsWith(prefix));
+    }
+
+    // The numbers of the directory starting with the given parts, in order. Parts
+    // may be null from the end, see NumberTrie.startingWith.
+    public Stream<PhoneNumber> numbersStartingWith(String country, String area, String number) {
+        return numbers.startingWith(country, area, number);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        names = new TreeSet<>(getEntries().keySet());
+        numbers = new NumberTrie();
+        getEntries().values().forEach(numbers -> numbers.forEach(this.numbers::add));
+    }
+}
@@ -0,0 +1,68 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+// Compares prefix searches on a SearchablePhoneDirectory with scanning the
+// entries of the directory, and checks that they find the same. Run with
+// -Dentries=... to change the size.
+public class SearchablePhoneDirectoryExample {
+    public static void main(String[] args) {
+        int count = Integer.getInteger("entries", 1_000_000);
+        var dir = new SearchablePhoneDirectory();
+        var random = new Random(42);
+        for (int i = 0; i < count; ++i) {
+            dir.add("Person " + random.nextInt(count), new PhoneNumber(random.nextInt(4) == 0 ? "44" : "36",
+                String.valueOf(20 + random.nextInt(50)), String.valueOf(1_000_000 + random.nextInt(9_000_000))));
+        }
+
+        int queries = 1000;
+        long indexed = 0;
+        long scanned = 0;
+        int mismatches = 0;
+        for (int i = 0; i < queries; ++i) {
+            var prefix = "Person " + random.nextInt(count / 100);
+            var area = String.valueOf(20 + random.nextInt(50));
+            var number = String.valueOf(1 + random.nextInt(9)) + random.nextInt(100);
+
+            long t1 = System.nanoTime();
+            var names = dir.namesStartingWith(prefix).limit(20).collect(Collectors.toList());
+            var numbers = dir.numbersStartingWith("36", area, number).limit(20).collect(Collectors.toList());
+            long t2 = System.nanoTime();
+            // Only scan for some of them, it's slow
+            if (i % 50 == 0) {
+                var scannedNames = dir.getEntries().keySet().stream()
+                    .filter(n -> n.startsWith(prefix)).sorted().limit(20).collect(Collectors.toList());
+                var scannedNumbers = dir.getEntries().values().stream().flatMap(s -> s.stream())
+                    .filter(n -> n.getCountry().equals("36") && n.getArea().equals(area)
+                        && n.getNumber().startsWith(number))
+                    .distinct().sorted().limit(20).collect(Collectors.toList());
+                long t3 = System.nanoTime();
+                scanned += t3 - t2;
+                if (!names.equals(scannedNames) || !numbers.equals(scannedNumbers)) {
+                    ++mismatches;
+                }
+            }
+            indexed += t2 - t1;
+        }
+        System.out.println(String.format("%d entries: indexed search %.1f us, scan %.1f ms, %d mismatches",
+            count, indexed / 1e3 / queries, scanned / 1e6 / (queries / 50), mismatches));
+
+        // A number and its names, found by prefix
+        dir.numbersStartingWith("44", "2", null).limit(3)
+            .map(n -> Map.entry(n, dir.reverseLookup(n)))
+            .forEach(System.out::println);
+
+        // Replacing the numbers of a name with none removes the name, from the
+        // searches too
+        var alice = new PhoneNumber("36", "1", "2345678");
+        dir.add("Alice", alice);
+        dir.replace("Alice", List.of());
+        System.out.println(String.format("After replacing with no numbers: entry %s, names %s, numbers %s",
+            dir.getEntries().containsKey("Alice"),
+            dir.namesStartingWith("Alice").collect(Collectors.toList()),
+            dir.numbersStartingWith("36", "1", "2345678").collect(Collectors.toList())));
+    }
+}
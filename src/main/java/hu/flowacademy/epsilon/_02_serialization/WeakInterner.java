@@ -0,0 +1,58 @@
+package hu.flowacademy.epsilon._02_serialization;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// A pool of canonical instances of a value class, like String.intern() for any
+// class with a proper equals and hashCode. intern returns the instance that
+// was interned first among the equal ones, so the others can be garbage
+// collected.
+//
+// The pool only holds its instances weakly: once nothing else references one,
+// it disappears from the pool too. The map's values must be weak references as
+// well, as a value referencing its own key would keep it alive forever.
+public final class WeakInterner<T> {
+    private final Map<T, WeakReference<T>> pool = new WeakHashMap<>();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    public T intern(T value) {
+        lookups.increment();
+        synchronized (pool) {
+            var ref = pool.get(value);
+            var canonical = ref == null ? null : ref.get();
+            if (canonical != null) {
+                hits.increment();
+                return canonical;
+            }
+            pool.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    // Lookups that found an equal instance, so the looked up one was a duplicate
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public double getHitRate() {
+        long l = getLookups();
+        return l == 0 ? 0 : (double)getHits() / l;
+    }
+
+    public int size() {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+
+    @Override public String toString() {
+        return String.format("%d lookups, %.1f%% hits, %d pooled", getLookups(), 100 * getHitRate(), size());
+    }
+}
@@ -0,0 +1,286 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Reads the people of a big document on all the cores. A single parser can't
+// go faster than one core, however many there are, but a flat document of
+// records like ours can be cut into pieces that are parsed separately:
+// - the file is memory-mapped, so the pieces are read straight from the page
+//   cache without copying them into buffers first,
+// - it's cut right before a <person tag roughly every chunkSize bytes,
+// - each chunk is wrapped into <people>...</people> to make it a document of
+//   its own, and parsed by StaxPersonReader on the common fork-join pool, with
+//   a parallel stream that keeps the results in document order.
+//
+// A cut can fall inside a person with persons nested in it, or even inside a
+// comment. Then neither that chunk nor the next one is a well-formed document
+// by itself, so they fail; every chunk that parses, on the other hand, must
+// start and end between top-level elements. So a run of failed chunks is merged
+// into one, which starts and ends at safe points, and parsed again. If that
+// fails too, the document itself is broken, and we read it sequentially, to
+// report the error like StaxPersonReader does.
+//
+// Documents declaring another encoding than UTF-8, a DTD or namespaces, ones
+// where the first <person is inside a comment, and small files, are simply
+// read sequentially, like pieces too big to be mapped at once.
+class ParallelPersonReader {
+    private static final int MIN_CHUNK = 1024 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024 * 1024;
+    private static final int WINDOW = 64 * 1024;
+    private static final byte[] PERSON = "<person".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] START = "<people>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "</people>".getBytes(StandardCharsets.US_ASCII);
+
+    // The people matching the filter, in document order
+    static List<Person> read(Path file, Predicate<? super Person> filter) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkSize = Math.max(MIN_CHUNK,
+                Math.min(MAX_CHUNK, size / (4 * ForkJoinPool.getCommonPoolParallelism())));
+            var bounds = split(channel, chunkSize);
+            if (bounds == null) {
+                return readSequentially(file, filter);
+            }
+
+            int chunks = bounds.size() - 1;
+            var results = IntStream.range(0, chunks).parallel()
+                .mapToObj(i -> parse(channel, bounds.get(i), bounds.get(i + 1), filter))
+                .collect(Collectors.toList());
+
+            // Merge the runs of failed chunks, and parse them again
+            var runs = new ArrayList<int[]>();
+            for (int i = 0; i < chunks; ++i) {
+                if (results.get(i) == null) {
+                    int first = i;
+                    while (i + 1 < chunks && results.get(i + 1) == null) {
+                        ++i;
+                    }
+                    runs.add(new int[] { first, i });
+                }
+            }
+            var retried = runs.parallelStream()
+                .map(r -> parse(channel, bounds.get(r[0]), bounds.get(r[1] + 1), filter))
+                .collect(Collectors.toList());
+            for (int r = 0; r < runs.size(); ++r) {
+                if (retried.get(r) == null) {
+                    return readSequentially(file, filter);
+                }
+                results.set(runs.get(r)[0], retried.get(r));
+            }
+
+            var people = new ArrayList<Person>();
+            for (var result : results) {
+                if (result != null) {
+                    people.addAll(result);
+                }
+            }
+            return people;
+        }
+    }
+
+    private static List<Person> readSequentially(Path file, Predicate<? super Person> filter) throws IOException {
+        try (var in = Files.newInputStream(file);
+             var people = StaxPersonReader.people(in)) {
+            return people.filter(filter).collect(Collectors.toList());
+        }
+    }
+
+    // Returns the offsets where the chunks start, and where the last one ends, or
+    // null if the document should be read sequentially
+    private static List<Long> split(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        if (size < 2 * MIN_CHUNK) {
+            return null;
+        }
+        long first = findPerson(channel, 0, Math.min(size, WINDOW));
+        if (first < 0 || !isPlainHeader(channel, first)) {
+            return null;
+        }
+        // The end tag of the root element
+        long end = lastEndTag(channel);
+        if (end <= first) {
+            return null;
+        }
+        var bounds = new ArrayList<Long>();
+        bounds.add(first);
+        for (long from = first + chunkSize; from < end; ) {
+            long cut = findPerson(channel, from, end);
+            if (cut < 0) {
+                break;
+            }
+            bounds.add(cut);
+            from = cut + chunkSize;
+        }
+        bounds.add(end);
+        return bounds;
+    }
+
+    // The XML declaration, comments and the start tag of the root element. We
+    // drop it, so it mustn't have anything that changes how the rest is parsed.
+    private static boolean isPlainHeader(FileChannel channel, long length) throws IOException {
+        var bytes = new byte[(int)length];
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, length).get(bytes);
+        var header = new String(bytes, StandardCharsets.ISO_8859_1);
+        if (header.contains("xmlns") || bytes.length >= 2 && (bytes[0] == (byte)0xfe || bytes[0] == (byte)0xff)) {
+            return false;
+        }
+        // Everything in it must be closed before the first <person. Otherwise that
+        // one is inside a comment, CDATA section or processing instruction, like
+        // in <!-- <person .../> -->, and isn't a person at all.
+        for (int i = header.indexOf('<'); i >= 0; i = header.indexOf('<', i)) {
+            String open;
+            String close;
+            if (header.startsWith("<!--", i)) {
+                open = "<!--";
+                close = "-->";
+            } else if (header.startsWith("<![CDATA[", i)) {
+                open = "<![CDATA[";
+                close = "]]>";
+            } else if (header.startsWith("<?", i)) {
+                open = "<?";
+                close = "?>";
+            } else if (header.startsWith("<!", i)) {
+                // A DOCTYPE
+                return false;
+            } else {
+                open = "<";
+                close = ">";
+            }
+            int end = header.indexOf(close, i + open.length());
+            if (end < 0) {
+                return false;
+            }
+            i = end + close.length();
+        }
+        var encoding = header.replaceAll("(?s).*encoding\\s*=\\s*[\"']([^\"']*)[\"'].*", "$1");
+        return encoding.equals(header) || encoding.equalsIgnoreCase("utf-8")
+            || encoding.equalsIgnoreCase("us-ascii");
+    }
+
+    // The offset of the first <person tag in [from, to), or -1
+    private static long findPerson(FileChannel channel, long from, long to) throws IOException {
+        while (from < to) {
+            // Windows overlap, so a tag crossing the end of one is found in the next
+            long length = Math.min(to - from, WINDOW + PERSON.length);
+            var window = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            for (int i = 0; i + PERSON.length < length; ++i) {
+                if (matchesPerson(window, i)) {
+                    return from + i;
+                }
+            }
+            from += WINDOW;
+        }
+        return -1;
+    }
+
+    // <person followed by whitespace, / or >, so not <personal for example
+    private static boolean matchesPerson(ByteBuffer buffer, int i) {
+        for (int j = 0; j < PERSON.length; ++j) {
+            if (buffer.get(i + j) != PERSON[j]) {
+                return false;
+            }
+        }
+        byte next = buffer.get(i + PERSON.length);
+        return next == ' ' || next == '\t' || next == '\r' || next == '\n' || next == '/' || next == '>';
+    }
+
+    private static long lastEndTag(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = Math.max(0, size - WINDOW);
+        var tail = channel.map(FileChannel.MapMode.READ_ONLY, start, size - start);
+        for (int i = tail.limit() - 2; i >= 0; --i) {
+            if (tail.get(i) == '<' && tail.get(i + 1) == '/') {
+                return start + i;
+            }
+        }
+        return -1;
+    }
+
+    // The people of the chunk, or null if it's not well-formed on its own. Any
+    // exception from parsing or making the people fails the chunk: a cut inside
+    // a comment can make a Person of a commented-out element that has no birth
+    // date. Exceptions of the filter are the caller's, and are thrown, but only
+    // if the chunk is well-formed; in one that isn't, the filter may have been
+    // given a person that isn't in the document.
+    private static List<Person> parse(FileChannel channel, long start, long end, Predicate<? super Person> filter) {
+        if (end - start > Integer.MAX_VALUE) {
+            // Can't be mapped at once. Only a merged run of failed chunks, or a
+            // stretch without persons, gets this big; read the file sequentially.
+            return null;
+        }
+        try {
+            var chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            var in = new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(START), new ByteBufferInputStream(chunk), new ByteArrayInputStream(END))));
+            try (var people = StaxPersonReader.people(in)) {
+                return people.filter(person -> {
+                    try {
+                        return filter.test(person);
+                    } catch (RuntimeException e) {
+                        throw new FilterException(e);
+                    }
+                }).collect(Collectors.toList());
+            }
+        } catch (FilterException e) {
+            if (parse(channel, start, end, person -> false) == null) {
+                return null;
+            }
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static final class FilterException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        FilterException(RuntimeException cause) {
+            super(cause);
+        }
+
+        @Override public synchronized RuntimeException getCause() {
+            return (RuntimeException)super.getCause();
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override public int available() {
+            return buffer.remaining();
+        }
+    }
+}
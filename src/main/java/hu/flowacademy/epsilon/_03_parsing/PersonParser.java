@@ -0,0 +1,100 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+// Parses lots of small people documents, like the ones coming in through an
+// API, as cheaply as possible.
+//
+// The examples create a new factory and a new parser for every document. That
+// costs more than parsing a small document: finding the factory implementation
+// goes through the service loader, and a parser allocates its buffers, symbol
+// tables and configuration. Here every thread has its own parser, created on
+// first use and reset after each document; parsers aren't thread-safe, but
+// nothing stops a thread from using the same one again and again.
+//
+// The handlers come from PersonQuery, which doesn't look up the attributes of
+// every person by name either, and parses the birth date with a plain loop over
+// its digits.
+//
+// DTDs are refused: they're not needed for our documents, and entities are
+// the way to make a parser read local files or blow up (XXE and the billion
+// laughs attack).
+final class PersonParser {
+    private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
+
+    private static final SAXParserFactory SAX_FACTORY = SAXParserFactory.newDefaultInstance();
+    private static final DocumentBuilderFactory DOM_FACTORY = DocumentBuilderFactory.newDefaultInstance();
+
+    static {
+        try {
+            SAX_FACTORY.setFeature(DISALLOW_DOCTYPE, true);
+            SAX_FACTORY.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            DOM_FACTORY.setFeature(DISALLOW_DOCTYPE, true);
+            DOM_FACTORY.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Factories aren't guaranteed to be thread-safe, so creating parsers is
+    // synchronized on them; it only happens once per thread.
+    private static final ThreadLocal<SAXParser> SAX_PARSERS = ThreadLocal.withInitial(() -> {
+        synchronized (SAX_FACTORY) {
+            try {
+                return SAX_FACTORY.newSAXParser();
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    });
+
+    private static final ThreadLocal<DocumentBuilder> DOM_BUILDERS = ThreadLocal.withInitial(() -> {
+        synchronized (DOM_FACTORY) {
+            try {
+                return DOM_FACTORY.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    });
+
+    private PersonParser() {
+    }
+
+    // The people older than minAge in the document, like XmlSaxExample
+    static List<Person> parse(InputStream in, int minAge) throws IOException, SAXException {
+        return PersonQuery.PEOPLE.olderThan(minAge).parse(in);
+    }
+
+    // Parses the document with the SAX parser of this thread
+    static void parse(InputStream in, DefaultHandler handler) throws IOException, SAXException {
+        var parser = SAX_PARSERS.get();
+        try {
+            parser.parse(in, handler);
+        } finally {
+            // Forget the handler and the input, and get ready for the next one
+            parser.reset();
+        }
+    }
+
+    // Parses a whole DOM, with the builder of this thread
+    static Document parseDocument(InputStream in) throws IOException, SAXException {
+        var builder = DOM_BUILDERS.get();
+        try {
+            return builder.parse(in);
+        } finally {
+            builder.reset();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import javax.xml.stream.XMLStreamReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+// A query over the person elements of a document: conditions on their
+// attributes, and a projection making a result of the ones that match. It's
+// what PeopleHandler in XmlSaxExample does by hand, for any condition and any
+// result, and both for SAX and StAX:
+//
+//   PersonQuery.select(row -> row.text("lastName"), "lastName")
+//       .whereNumber("birthDate", year -> year < 1950)
+//       .parse(in);
+//
+// The conditions are checked right in the handler, on the attributes of the
+// element, and only the elements that match are turned into results, so the
+// others don't cost any objects. StAX makes attribute values into Strings only
+// when asked, so there the attributes that aren't needed aren't even read.
+//
+// Queries are immutable, where methods return a new one. The attributes are
+// found by position: they're looked up by name for the first person, and as
+// long as the next ones have the same attributes in the same order, which is
+// the usual case, only the names at the remembered positions are checked.
+final class PersonQuery<T> {
+    // The people, with the age computed like in the examples
+    static final PersonQuery<Person> PEOPLE = select(row -> new Person(
+        row.text("firstName"),
+        row.text("lastName"),
+        1977 - row.number("birthDate")
+    ), "firstName", "lastName", "birthDate");
+
+    // The attributes of a matching element, for the projection. Only the fields
+    // given to select can be read.
+    interface Row {
+        // The value of the attribute, or null if the element doesn't have it
+        String text(String attribute);
+
+        // The value as a number; throws NumberFormatException if it isn't one
+        int number(String attribute);
+    }
+
+    private static final class Condition {
+        final int attribute;
+        final Predicate<String> test;
+
+        Condition(int attribute, Predicate<String> test) {
+            this.attribute = attribute;
+            this.test = test;
+        }
+    }
+
+    private final String[] fields;
+    private final Function<Row, ? extends T> projection;
+    private final List<String> conditionAttributes;
+    private final List<Predicate<String>> conditionTests;
+    // The compiled form: every attribute we need, and the conditions by position
+    private final String[] attributes;
+    private final Condition[] conditions;
+
+    private PersonQuery(String[] fields, Function<Row, ? extends T> projection,
+            List<String> conditionAttributes, List<Predicate<String>> conditionTests) {
+        this.fields = fields;
+        this.projection = projection;
+        this.conditionAttributes = conditionAttributes;
+        this.conditionTests = conditionTests;
+        var all = new LinkedHashSet<String>(Arrays.asList(fields));
+        all.addAll(conditionAttributes);
+        attributes = all.toArray(new String[0]);
+        var list = Arrays.asList(attributes);
+        conditions = new Condition[conditionTests.size()];
+        for (int i = 0; i < conditions.length; ++i) {
+            conditions[i] = new Condition(list.indexOf(conditionAttributes.get(i)), conditionTests.get(i));
+        }
+    }
+
+    // A query for all the people, giving what the projection makes of them. The
+    // projection can read the given attributes, and mustn't return null.
+    static <T> PersonQuery<T> select(Function<Row, ? extends T> projection, String... fields) {
+        return new PersonQuery<>(fields.clone(), projection, List.of(), List.of());
+    }
+
+    // Only the elements where the condition holds for the attribute. A missing
+    // attribute is null.
+    PersonQuery<T> where(String attribute, Predicate<String> condition) {
+        var attributes = new ArrayList<>(conditionAttributes);
+        var tests = new ArrayList<>(conditionTests);
+        attributes.add(attribute);
+        tests.add(condition);
+        return new PersonQuery<>(fields, projection, attributes, tests);
+    }
+
+    // Only the elements where the attribute is a number the condition holds for
+    PersonQuery<T> whereNumber(String attribute, IntPredicate condition) {
+        return where(attribute, value -> {
+            if (value == null) {
+                return false;
+            }
+            return condition.test(parseNumber(value));
+        });
+    }
+
+    // Only the people older than age, in the sense of the examples
+    PersonQuery<T> olderThan(int age) {
+        return whereNumber("birthDate", year -> 1977 - year > age);
+    }
+
+    // A SAX handler giving the results to the consumer
+    DefaultHandler handler(Consumer<? super T> consumer) {
+        var matcher = new SaxMatcher();
+        return new DefaultHandler() {
+            @Override public void startElement(String uri, String localName, String qName, Attributes attributes)
+                    throws SAXException {
+                if ("person".equals(qName)) {
+                    matcher.current = attributes;
+                    var result = matcher.match();
+                    if (result != null) {
+                        consumer.accept(result);
+                    }
+                }
+            }
+        };
+    }
+
+    // The results, parsed with the SAX parser of this thread
+    List<T> parse(InputStream in) throws IOException, SAXException {
+        var results = new ArrayList<T>();
+        PersonParser.parse(in, handler(results::add));
+        return results;
+    }
+
+    // The results as a lazy stream, parsed with StAX. See StaxPersonReader.
+    Stream<T> stream(InputStream in) {
+        var matcher = new StaxMatcher();
+        return StaxPersonReader.elements(in, "person", reader -> {
+            matcher.current = reader;
+            return matcher.match();
+        });
+    }
+
+    // Parses a non-negative decimal number, without Integer.parseInt's handling
+    // of radixes, signs and overflow
+    static int parseNumber(String s) {
+        if (s.isEmpty() || s.length() > 9) {
+            throw new NumberFormatException("Invalid number: " + s);
+        }
+        int n = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number: " + s);
+            }
+            n = n * 10 + digit;
+        }
+        return n;
+    }
+
+    // Checks the elements one by one, remembering where the attributes were
+    private abstract class Matcher implements Row {
+        // For each of our attributes, its position in the element, or -1
+        private final int[] positions = new int[attributes.length];
+        private int count = -1;
+        // Whether the last element had all of them. If not, a missing one can
+        // appear anywhere without changing the others, so we look again.
+        private boolean allFound;
+
+        abstract int count();
+
+        abstract String name(int i);
+
+        abstract String value(int i);
+
+        T match() {
+            if (!sameShape()) {
+                resolve();
+            }
+            for (var c : conditions) {
+                int position = positions[c.attribute];
+                if (!c.test.test(position < 0 ? null : value(position))) {
+                    return null;
+                }
+            }
+            return projection.apply(this);
+        }
+
+        private boolean sameShape() {
+            if (!allFound || count() != count) {
+                return false;
+            }
+            for (int a = 0; a < attributes.length; ++a) {
+                // Parsers keep names in a symbol table, so this is usually true on
+                // the first, identity check
+                if (!attributes[a].equals(name(positions[a]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void resolve() {
+            Arrays.fill(positions, -1);
+            count = count();
+            int found = 0;
+            for (int i = 0; i < count; ++i) {
+                var name = name(i);
+                for (int a = 0; a < attributes.length; ++a) {
+                    if (attributes[a].equals(name)) {
+                        positions[a] = i;
+                        ++found;
+                        break;
+                    }
+                }
+            }
+            allFound = found == attributes.length;
+        }
+
+        @Override public String text(String attribute) {
+            for (int a = 0; a < fields.length; ++a) {
+                if (fields[a].equals(attribute)) {
+                    // Fields come first in attributes
+                    return positions[a] < 0 ? null : value(positions[a]);
+                }
+            }
+            throw new IllegalArgumentException(attribute + " isn't selected");
+        }
+
+        @Override public int number(String attribute) {
+            var value = text(attribute);
+            if (value == null) {
+                throw new NumberFormatException("No " + attribute);
+            }
+            return parseNumber(value);
+        }
+    }
+
+    private final class SaxMatcher extends Matcher {
+        Attributes current;
+
+        @Override int count() {
+            return current.getLength();
+        }
+
+        @Override String name(int i) {
+            return current.getQName(i);
+        }
+
+        @Override String value(int i) {
+            return current.getValue(i);
+        }
+    }
+
+    private final class StaxMatcher extends Matcher {
+        XMLStreamReader current;
+
+        @Override int count() {
+            return current.getAttributeCount();
+        }
+
+        @Override String name(int i) {
+            return current.getAttributeLocalName(i);
+        }
+
+        @Override String value(int i) {
+            return current.getAttributeValue(i);
+        }
+    }
+}
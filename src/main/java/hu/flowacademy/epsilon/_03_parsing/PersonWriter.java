@@ -0,0 +1,205 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Writes people as XML, one person at a time, the counterpart of
+// StaxPersonReader. XmlDomExample writes a document by building a DOM and
+// running it through an identity Transformer, so the whole document has to be
+// in memory before the first byte is written. Here every person is written as
+// soon as we have it, so reading, filtering and writing people together take
+// the same little memory for a document of any size:
+//
+//   try (var people = PersonQuery.PEOPLE.olderThan(30).stream(in);
+//        var writer = new PersonWriter(out)) {
+//       people.forEach(writer::write);
+//   }
+//
+// The JDK has a streaming writer too, XMLStreamWriter, but it encodes and
+// escapes the text one character at a time, through several layers, which made
+// it slower than the Transformer in XmlWritingBenchmark. Our documents are
+// simple enough to write by hand: the tags and attribute names are constant
+// bytes, and the values are escaped and encoded to UTF-8 in one loop, straight
+// into a byte array, which goes to the output when it's full and at the end.
+//
+// The people are written flat, one per line, in the format of example1.xml, so
+// the readers can read them back; the birth date is computed from the age
+// like in the examples. A name that's null, like the ones PersonQuery gives
+// for missing attributes, is left out, like a DOM would leave it out.
+//
+// A person goes to the output only once it's completely in the buffer, so a
+// name that can't be written doesn't leave half a person behind, and the
+// document can still be closed properly.
+class PersonWriter implements Closeable {
+    private static final byte[] START =
+        "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<people>\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "</people>\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PERSON = "  <person".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIRST_NAME = " firstName=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_NAME = " lastName=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BIRTH_DATE = " birthDate=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUOTE = "\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PERSON_END = "/>\n".getBytes(StandardCharsets.US_ASCII);
+    // The longest a character can get: an escape like &quot; or 4 bytes of UTF-8
+    private static final int MAX_CHAR = 6;
+
+    private final OutputStream out;
+    private byte[] buffer = new byte[64 * 1024];
+    private int position;
+    // The end of the complete people in the buffer
+    private int committed;
+    private long count;
+    private boolean closed;
+
+    // Starts the document; nothing is written to out until the buffer is full
+    PersonWriter(OutputStream out) {
+        this.out = out;
+        put(START);
+        committed = position;
+    }
+
+    // Throws UncheckedIOException, so it can be used with forEach like above,
+    // and IllegalArgumentException for names that can't be in an XML document,
+    // like ones with control characters
+    void write(Person person) {
+        if (closed) {
+            throw new IllegalStateException("Writer closed");
+        }
+        try {
+            put(PERSON);
+            if (person.firstName != null) {
+                put(FIRST_NAME);
+                putEscaped(person.firstName);
+                put(QUOTE);
+            }
+            if (person.lastName != null) {
+                put(LAST_NAME);
+                putEscaped(person.lastName);
+                put(QUOTE);
+            }
+            put(BIRTH_DATE);
+            putNumber(1977 - person.age);
+            put(QUOTE);
+            put(PERSON_END);
+        } catch (RuntimeException e) {
+            // Forget the part of the person written so far
+            position = committed;
+            throw e;
+        }
+        committed = position;
+        ++count;
+    }
+
+    // The number of people written so far
+    long getCount() {
+        return count;
+    }
+
+    // Ends the document and flushes everything to the output stream, but
+    // doesn't close it, like StaxPersonReader doesn't close its input. Closing
+    // it again does nothing.
+    @Override public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        put(END);
+        out.write(buffer, 0, position);
+        position = 0;
+        committed = 0;
+        out.flush();
+    }
+
+    // Makes room for length more bytes, sending the complete people to the
+    // output, and keeping the one being written, which can grow the buffer if
+    // it's a huge one
+    private void ensure(int length) {
+        if (buffer.length - position >= length) {
+            return;
+        }
+        if (committed > 0) {
+            try {
+                out.write(buffer, 0, committed);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            System.arraycopy(buffer, committed, buffer, 0, position - committed);
+            position -= committed;
+            committed = 0;
+        }
+        if (buffer.length - position < length) {
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, position + length));
+        }
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void putNumber(int n) {
+        var digits = Integer.toString(n);
+        ensure(digits.length());
+        for (int i = 0; i < digits.length(); ++i) {
+            buffer[position++] = (byte)digits.charAt(i);
+        }
+    }
+
+    // Escapes the characters that would end the value or start markup, and the
+    // whitespace a parser would turn into spaces in an attribute
+    private void putEscaped(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            ensure(MAX_CHAR);
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    putUtf8(Character.toCodePoint(c, s.charAt(++i)));
+                } else if (Character.isSurrogate(c) || c >= 0xFFFE) {
+                    throw new IllegalArgumentException("Invalid XML character in " + s);
+                } else {
+                    putUtf8(c);
+                }
+                continue;
+            }
+            switch (c) {
+                case '&': putAscii("&amp;"); break;
+                case '<': putAscii("&lt;"); break;
+                case '>': putAscii("&gt;"); break;
+                case '"': putAscii("&quot;"); break;
+                case '\t': putAscii("&#9;"); break;
+                case '\n': putAscii("&#10;"); break;
+                case '\r': putAscii("&#13;"); break;
+                default:
+                    if (c < 0x20) {
+                        throw new IllegalArgumentException("Invalid XML character in " + s);
+                    }
+                    buffer[position++] = (byte)c;
+            }
+        }
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            buffer[position++] = (byte)s.charAt(i);
+        }
+    }
+
+    private void putUtf8(int codePoint) {
+        if (codePoint < 0x800) {
+            buffer[position++] = (byte)(0xC0 | codePoint >> 6);
+        } else if (codePoint < 0x10000) {
+            buffer[position++] = (byte)(0xE0 | codePoint >> 12);
+            buffer[position++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+        } else {
+            buffer[position++] = (byte)(0xF0 | codePoint >> 18);
+            buffer[position++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+            buffer[position++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+        }
+        buffer[position++] = (byte)(0x80 | codePoint & 0x3F);
+    }
+}
@@ -0,0 +1,108 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+// Parses many small people documents from several threads, the way the
+// examples do it, with a new factory and parser for each, and with the pooled
+// parsers of PersonParser, and prints the documents parsed per second. Run with
+// -Ddocs=..., -Dthreads=... and -Drounds=....
+public class SmallDocumentBenchmark {
+    private interface Parser {
+        long countOlderThan30(InputStream in) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int docs = Integer.getInteger("docs", 50_000);
+        int threads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+        int rounds = Integer.getInteger("rounds", 3);
+        var documents = generate(1000);
+
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            System.out.println(String.format("%d documents of 10 people, %d threads, best of %d rounds",
+                docs, threads, rounds));
+            run("new SAX parser", executor, threads, docs, rounds, documents, in -> {
+                var handler = new XmlSaxExample.PeopleHandler(30);
+                SAXParserFactory.newDefaultInstance().newSAXParser().parse(in, handler);
+                return handler.people.size();
+            });
+            run("new DOM builder", executor, threads, docs, rounds, documents, in ->
+                countOlderThan30(DocumentBuilderFactory.newDefaultInstance().newDocumentBuilder().parse(in)));
+            run("pooled DOM builder", executor, threads, docs, rounds, documents, in ->
+                countOlderThan30(PersonParser.parseDocument(in)));
+            run("pooled SAX parser", executor, threads, docs, rounds, documents, in ->
+                PersonParser.parse(in, 30).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long countOlderThan30(Document doc) {
+        var list = doc.getDocumentElement().getElementsByTagName("person");
+        long count = 0;
+        for (int i = 0; i < list.getLength(); ++i) {
+            if (1977 - Integer.parseInt(((Element)list.item(i)).getAttribute("birthDate")) > 30) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static void run(String name, ExecutorService executor, int threads, int docs, int rounds,
+            byte[][] documents, Parser parser) throws Exception {
+        long best = Long.MAX_VALUE;
+        long people = 0;
+        // The first round is warmup
+        for (int round = 0; round <= rounds; ++round) {
+            var next = new AtomicInteger();
+            var count = new AtomicLong();
+            var futures = new Future<?>[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; ++t) {
+                futures[t] = executor.submit(() -> {
+                    for (int i; (i = next.getAndIncrement()) < docs; ) {
+                        count.addAndGet(parser.countOlderThan30(
+                            new ByteArrayInputStream(documents[i % documents.length])));
+                    }
+                    return null;
+                });
+            }
+            for (var f : futures) {
+                f.get();
+            }
+            if (round > 0) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            people = count.get();
+        }
+        System.out.println(String.format("%-20s %10.0f documents/s, %d older than 30",
+            name, docs / (best / 1e9), people));
+    }
+
+    private static byte[][] generate(int count) {
+        var random = new Random(42);
+        var documents = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            var doc = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<people>\n");
+            for (int j = 0; j < 10; ++j) {
+                doc.append(String.format("  <person firstName=\"First%d\" lastName=\"Last%d\" birthDate=\"%d\"/>\n",
+                    j, i, 1900 + random.nextInt(77)));
+            }
+            doc.append("</people>\n");
+            documents[i] = doc.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,91 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+// Reads the people of a document with StAX (Streaming API for XML), the third
+// way to parse XML besides DOM and SAX. It's a pull parser: instead of the
+// parser calling a handler like with SAX, we ask it for the next event when we
+// want one. That makes it easy to turn a document into a lazy Stream: the
+// parser only reads on when the stream needs the next Person, and nothing else
+// is kept in memory, so documents of any size can be processed.
+//
+// Every person element gives a Person, in the order of their start tags, the
+// ones nested in other persons too, just like getElementsByTagName in DOM and
+// the handler in SAX.
+class StaxPersonReader {
+    // Creating a factory looks up the implementation, so it's worth reusing.
+    // Once configured, it can create readers from any thread.
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        // Our documents have no DTDs, and external entities could read any file
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    // Parse errors come as UncheckedIOExceptions. Closing the stream closes the
+    // parser, but not the input stream.
+    static Stream<Person> people(InputStream in) {
+        return PersonQuery.PEOPLE.stream(in);
+    }
+
+    // What the mapper makes of the elements with the given name, skipping the
+    // ones it returns null for. It gets the reader positioned on the start tag.
+    static <T> Stream<T> elements(InputStream in, String name, Function<XMLStreamReader, T> mapper) {
+        XMLStreamReader reader;
+        try {
+            reader = FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        }
+        return StreamSupport.stream(new ElementSpliterator<>(reader, name, mapper), false).onClose(() -> {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                throw new UncheckedIOException(new IOException(e.getMessage(), e));
+            }
+        });
+    }
+
+    private static final class ElementSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+        private final XMLStreamReader reader;
+        private final String name;
+        private final Function<XMLStreamReader, T> mapper;
+
+        ElementSpliterator(XMLStreamReader reader, String name, Function<XMLStreamReader, T> mapper) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.reader = reader;
+            this.name = name;
+            this.mapper = mapper;
+        }
+
+        @Override public boolean tryAdvance(Consumer<? super T> action) {
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals(name)) {
+                        var element = mapper.apply(reader);
+                        if (element != null) {
+                            action.accept(element);
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            } catch (XMLStreamException e) {
+                throw new UncheckedIOException(new IOException(e.getMessage(), e));
+            }
+        }
+    }
+}
@@ -63,7 +63,8 @@ public class XmlDomExample {
             // the XML transformation API (look up XSLT if you want more details)
             // and use an identity (in other words, no-op) transformation to
             // "transform" a DOMSource (XML coming from a DOM) to a StreamResult
-            // (result that goes into an output stream).
+            // (result that goes into an output stream). It also needs the whole
+            // document in memory; PersonWriter writes people as they come.
             TransformerFactory tFactory = TransformerFactory.newInstance();
             Transformer transformer = tFactory.newTransformer();
             var source = new DOMSource(doc);
@@ -0,0 +1,109 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import org.w3c.dom.Element;
+
+// Counts the people older than 30 in a generated document with DOM, SAX, StAX
+// and ParallelPersonReader, and prints how long it took and the peak heap
+// usage. Every tenth person has two others nested in it, like Carrie Fisher in
+// example1.xml. Run with -Dpeople=... to change the size, and a small -Xmx to
+// see DOM run out of memory long before the others.
+public class XmlParsingBenchmark {
+    private interface Parser {
+        long countOlderThan30(Path file) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int people = Integer.getInteger("people", 1_000_000);
+        int rounds = Integer.getInteger("rounds", 3);
+        var file = Files.createTempFile("people", ".xml");
+        try {
+            generate(file, people);
+            System.out.println(String.format("%d people, %d MB", people, Files.size(file) >> 20));
+            run("DOM", file, rounds, f -> {
+                var doc = DocumentBuilderFactory.newDefaultInstance().newDocumentBuilder().parse(f.toFile());
+                var list = doc.getDocumentElement().getElementsByTagName("person");
+                long count = 0;
+                for (int i = 0; i < list.getLength(); ++i) {
+                    var e = (Element)list.item(i);
+                    if (1977 - Integer.parseInt(e.getAttribute("birthDate")) > 30) {
+                        ++count;
+                    }
+                }
+                return count;
+            });
+            run("SAX", file, rounds, f -> {
+                var handler = new XmlSaxExample.PeopleHandler(30);
+                SAXParserFactory.newDefaultInstance().newSAXParser().parse(f.toFile(), handler);
+                return handler.people.size();
+            });
+            run("StAX", file, rounds, f -> {
+                try (var in = new BufferedInputStream(Files.newInputStream(f));
+                     var stream = StaxPersonReader.people(in)) {
+                    return stream.filter(p -> p.age > 30).count();
+                }
+            });
+            run("StAX, " + ForkJoinPool.getCommonPoolParallelism() + " threads", file, rounds,
+                f -> ParallelPersonReader.read(f, p -> p.age > 30).size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void run(String name, Path file, int rounds, Parser parser) throws Exception {
+        long best = Long.MAX_VALUE;
+        long peak = 0;
+        long count = 0;
+        for (int i = 0; i < rounds; ++i) {
+            System.gc();
+            var pools = ManagementFactory.getMemoryPoolMXBeans();
+            pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            long start = System.nanoTime();
+            count = parser.countOlderThan30(file);
+            best = Math.min(best, System.nanoTime() - start);
+            long used = 0;
+            for (var pool : pools) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    used += pool.getPeakUsage().getUsed();
+                }
+            }
+            peak = Math.max(peak, used);
+        }
+        System.out.println(String.format("%-16s %8d ms, peak heap %5d MB, %d older than 30",
+            name, best / 1_000_000, peak >> 20, count));
+    }
+
+    private static void generate(Path file, int people) throws IOException {
+        var random = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<people>\n");
+            for (int i = 0; i < people; ++i) {
+                boolean parent = i % 10 == 0 && i + 2 < people;
+                writePerson(out, random, i, parent ? ">\n" : "/>\n");
+                if (parent) {
+                    writePerson(out, random, ++i, "/>\n");
+                    writePerson(out, random, ++i, "/>\n");
+                    out.write("  </person>\n");
+                }
+            }
+            out.write("</people>\n");
+        }
+    }
+
+    private static void writePerson(BufferedWriter out, Random random, int i, String end) throws IOException {
+        out.write(String.format("  <person firstName=\"First%d\" lastName=\"Last%d\" birthDate=\"%d\"%s",
+            i, i, 1900 + random.nextInt(77), end));
+    }
+}
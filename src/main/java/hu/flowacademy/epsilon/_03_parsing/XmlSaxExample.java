@@ -18,7 +18,7 @@ public class XmlSaxExample {
 
     // This is a SAX handler that builds Person objects whenever the SAX
     // parser encounters the start of an XML element named "person".
-    private static final class PeopleHandler extends DefaultHandler {
+    static final class PeopleHandler extends DefaultHandler {
         PeopleHandler(int minAge) {
             this.minAge = minAge;
         }
@@ -34,7 +34,8 @@ public class XmlSaxExample {
                 // those objects that wouldn't match the filter. When working with large
                 // datasets, moving processing into the handler and only keeping the minimum
                 // required data there can significantly reduce the amount of memory needed to
-                // run the processing.
+                // run the processing. PersonQuery does the same for any condition and
+                // any result, see queryXml below.
                 if (age > minAge) {
                     people.add(new Person(
                         attributes.getValue("firstName"),
@@ -63,7 +64,19 @@ public class XmlSaxExample {
         }
     }
 
+    // Filtering with a PersonQuery: the condition is checked on the attributes in
+    // the handler it makes, and only the last names of the people born before
+    // 1940 are made into results, without any Person objects.
+    public static void queryXml() throws Exception {
+        var query = PersonQuery.select(row -> row.text("lastName"), "lastName")
+            .whereNumber("birthDate", year -> year < 1940);
+        try (var in = XmlSaxExample.class.getResourceAsStream("example1.xml")) {
+            query.parse(in).forEach(System.out::println);
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         loadXml();
+        queryXml();
     }
 }
@@ -0,0 +1,34 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+// Demonstrates loading an XML document with StAX, through StaxPersonReader.
+// We get a Stream of the people, so the filtering and printing happen as the
+// document is read, without collecting anything into a list first, yet it's as
+// easy to write as the DOM version.
+public class XmlStaxExample {
+    public static void loadXml() throws Exception {
+        try (var in = XmlStaxExample.class.getResourceAsStream("example1.xml");
+             var people = StaxPersonReader.people(in)) {
+            people
+                .filter(p -> p.age > 30)
+                .forEach(o -> System.out.println(String.format("%s %s", o.firstName, o.lastName)));
+        }
+    }
+
+    // Reading, filtering and writing XML in one go: every person older than 30
+    // is written as soon as it's read, so the document is never in memory as a
+    // whole, unlike with the Transformer in XmlDomExample.
+    public static void filterXml() throws Exception {
+        try (var in = XmlStaxExample.class.getResourceAsStream("example1.xml");
+             var people = StaxPersonReader.people(in);
+             var writer = new PersonWriter(System.out)) {
+            people
+                .filter(p -> p.age > 30)
+                .forEach(writer::write);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        loadXml();
+        filterXml();
+    }
+}
@@ -0,0 +1,132 @@
+package hu.flowacademy.epsilon._03_parsing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Element;
+
+// Writes generated people to a file with a DOM and an identity Transformer,
+// like XmlDomExample, and with PersonWriter, then reads that file, keeps the
+// people older than 30 and writes them out again both ways. Prints how long it
+// took, the output written per second and the peak heap usage. Run with
+// -Dpeople=... to change the size, and a small -Xmx to see the DOM run out of
+// memory.
+public class XmlWritingBenchmark {
+    private interface Writer {
+        long write(Path in, OutputStream out) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = Integer.getInteger("people", 1_000_000);
+        int rounds = Integer.getInteger("rounds", 3);
+        var people = generate(count);
+        var input = Files.createTempFile("people", ".xml");
+        var output = Files.createTempFile("people", ".xml");
+        try {
+            try (var out = Files.newOutputStream(input);
+                 var writer = new PersonWriter(out)) {
+                people.forEach(writer::write);
+            }
+            System.out.println(String.format("%d people, %d MB", count, Files.size(input) >> 20));
+
+            run("DOM + Transformer", output, rounds, null, (in, out) -> {
+                var doc = DocumentBuilderFactory.newDefaultInstance().newDocumentBuilder().newDocument();
+                var root = doc.createElement("people");
+                doc.appendChild(root);
+                for (var p : people) {
+                    var e = doc.createElement("person");
+                    e.setAttribute("firstName", p.firstName);
+                    e.setAttribute("lastName", p.lastName);
+                    e.setAttribute("birthDate", Integer.toString(1977 - p.age));
+                    root.appendChild(e);
+                }
+                TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(out));
+                return people.size();
+            });
+            run("PersonWriter", output, rounds, null, (in, out) -> {
+                try (var writer = new PersonWriter(out)) {
+                    people.forEach(writer::write);
+                    return writer.getCount();
+                }
+            });
+
+            // XML -> filter -> XML
+            run("filter, DOM", output, rounds, input, (in, out) -> {
+                var doc = DocumentBuilderFactory.newDefaultInstance().newDocumentBuilder().parse(in.toFile());
+                var list = doc.getDocumentElement().getElementsByTagName("person");
+                // The list is live, so it's copied before removing nodes
+                var persons = new ArrayList<Element>(list.getLength());
+                for (int i = 0; i < list.getLength(); ++i) {
+                    persons.add((Element)list.item(i));
+                }
+                long kept = 0;
+                for (var e : persons) {
+                    if (1977 - Integer.parseInt(e.getAttribute("birthDate")) > 30) {
+                        ++kept;
+                    } else {
+                        e.getParentNode().removeChild(e);
+                    }
+                }
+                TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(out));
+                return kept;
+            });
+            run("filter, streaming", output, rounds, input, (in, out) -> {
+                try (var stream = new BufferedInputStream(Files.newInputStream(in));
+                     var filtered = PersonQuery.PEOPLE.olderThan(30).stream(stream);
+                     var writer = new PersonWriter(out)) {
+                    filtered.forEach(writer::write);
+                    return writer.getCount();
+                }
+            });
+        } finally {
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+
+    private static void run(String name, Path output, int rounds, Path input, Writer writer) throws Exception {
+        long best = Long.MAX_VALUE;
+        long peak = 0;
+        long count = 0;
+        for (int i = 0; i < rounds; ++i) {
+            System.gc();
+            var pools = ManagementFactory.getMemoryPoolMXBeans();
+            pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            long start = System.nanoTime();
+            try (var out = new BufferedOutputStream(Files.newOutputStream(output), 64 * 1024)) {
+                count = writer.write(input, out);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            long used = 0;
+            for (var pool : pools) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    used += pool.getPeakUsage().getUsed();
+                }
+            }
+            peak = Math.max(peak, used);
+        }
+        System.out.println(String.format("%-18s %8d ms, %6.1f MB/s, peak heap %5d MB, %d people written",
+            name, best / 1_000_000, Files.size(output) / (best / 1e9) / (1 << 20), peak >> 20, count));
+    }
+
+    private static List<Person> generate(int count) {
+        var random = new Random(42);
+        var people = new ArrayList<Person>(count);
+        for (int i = 0; i < count; ++i) {
+            people.add(new Person("First" + i, "Last" + i, 1977 - (1900 + random.nextInt(77))));
+        }
+        return people;
+    }
+}
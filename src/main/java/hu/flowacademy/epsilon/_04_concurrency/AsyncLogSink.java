@@ -0,0 +1,367 @@
+package hu.flowacademy.epsilon._04_concurrency;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+// Writes log messages to a file from a background thread, so the threads that
+// log don't have to wait for the disk or for each other.
+//
+// Logging with System.out.println from many threads serializes them on the lock
+// of the PrintStream, and each one waits for its line to be written. Here a
+// logging thread only puts the message into a ring buffer; it doesn't even
+// format it, messages are Suppliers that the background thread calls. The
+// background thread takes everything that accumulated in the buffer, formats
+// it into one byte buffer and writes it with a single FileChannel.write call.
+// The busier the loggers are, the bigger these batches get.
+//
+// The ring buffer is lock-free: a fixed array of slots, each with a sequence
+// number telling whose turn it is to use it. A producer claims the next slot
+// with a compare-and-set on the tail counter and then fills it; the consumer
+// (there's only one) takes the slots in order as they get filled. This is
+// Dmitry Vyukov's bounded queue. When the buffer is full, the overflow policy
+// decides whether the message is dropped (and counted) or the logging thread
+// waits for room.
+//
+// Closing the sink writes out every message that was accepted. A producer can
+// have claimed a slot but not filled it yet when the consumer sees the sink
+// closed, so the consumer keeps going until it has taken every claimed slot. A
+// producer that finds the sink closed right after claiming one fills it with
+// a marker that's skipped, and counts its message as dropped.
+//
+// handler() makes a java.util.logging Handler writing to the sink, so loggers
+// can use it with their levels, filters and configuration. A LazyRecord logged
+// through it keeps its message a Supplier too, called on the background thread.
+public final class AsyncLogSink implements AutoCloseable {
+    public enum OverflowPolicy { DROP, BLOCK }
+
+    private static final int BATCH_BYTES = 64 * 1024;
+    // Fills a slot claimed after close
+    private static final Supplier<String> SKIPPED = () -> null;
+
+    private final FileChannel out;
+    // Files opened by open() are closed with the sink
+    private final boolean ownsChannel;
+    private final OverflowPolicy policy;
+    private final int mask;
+    private final AtomicReferenceArray<Supplier<String>> slots;
+    // For slot i: equals the position p (with i == p & mask) once the slot is
+    // free for the producer of p, and p + 1 once it holds the message of p.
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched by the consumer
+    private long head;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread consumer;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    // The capacity must be a power of two
+    public AsyncLogSink(FileChannel out, int capacity, OverflowPolicy policy) {
+        this(out, false, capacity, policy);
+    }
+
+    private AsyncLogSink(FileChannel out, boolean ownsChannel, int capacity, OverflowPolicy policy) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.out = out;
+        this.ownsChannel = ownsChannel;
+        this.policy = policy;
+        mask = capacity - 1;
+        slots = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            sequences.set(i, i);
+        }
+        consumer = new Thread(this::consume, "async-log");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public static AsyncLogSink open(Path file, int capacity, OverflowPolicy policy) throws IOException {
+        return new AsyncLogSink(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND), true, capacity, policy);
+    }
+
+    public static AsyncLogSink stdout(int capacity, OverflowPolicy policy) {
+        return new AsyncLogSink(new FileOutputStream(FileDescriptor.out).getChannel(), capacity, policy);
+    }
+
+    public static AsyncLogSink stderr(int capacity, OverflowPolicy policy) {
+        return new AsyncLogSink(new FileOutputStream(FileDescriptor.err).getChannel(), capacity, policy);
+    }
+
+    // Queues a message to be formatted and written as a line by the background
+    // thread. Returns false if it was dropped because the buffer was full or the
+    // sink is closed.
+    public boolean log(Supplier<String> message) {
+        long position;
+        int backoff = 0;
+        for (;;) {
+            if (closed) {
+                dropped.increment();
+                return false;
+            }
+            position = tail.get();
+            long diff = sequences.get((int)position & mask) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // The slot still holds the message from one round earlier: full
+                if (policy == OverflowPolicy.DROP) {
+                    dropped.increment();
+                    return false;
+                }
+                wakeConsumer();
+                if (++backoff < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(10_000);
+                }
+            }
+            // Otherwise another producer claimed this position, try the next one
+        }
+        int i = (int)position & mask;
+        // If this is true, the consumer may not take this message anymore. If it's
+        // false, the claim above happened before the consumer saw closed, and it
+        // waits for it.
+        boolean late = closed;
+        slots.set(i, late ? SKIPPED : message);
+        sequences.set(i, position + 1);
+        if (waiting) {
+            wakeConsumer();
+        }
+        if (late) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // A log record whose message is a Supplier, called the first time the
+    // message is asked for. Logged with Logger.log(LogRecord) to a handler()
+    // that's when the formatter gets to it on the background thread:
+    //
+    //   if (logger.isLoggable(Level.FINE)) {
+    //       logger.log(new AsyncLogSink.LazyRecord(Level.FINE, message));
+    //   }
+    public static final class LazyRecord extends LogRecord {
+        private static final long serialVersionUID = 1L;
+
+        private transient Supplier<String> message;
+
+        public LazyRecord(Level level, Supplier<String> message) {
+            super(level, null);
+            this.message = message;
+        }
+
+        @Override public synchronized String getMessage() {
+            if (message != null) {
+                setMessage(message.get());
+                message = null;
+            }
+            return super.getMessage();
+        }
+    }
+
+    // A java.util.logging handler writing to the sink. The formatter, a
+    // SimpleFormatter unless set otherwise, runs on the background thread. The
+    // handler is closed with the sink, closing it does nothing.
+    public Handler handler() {
+        var handler = new Handler() {
+            @Override public void publish(LogRecord record) {
+                if (isLoggable(record)) {
+                    var formatter = getFormatter();
+                    // The caller is found by walking the stack of the logging
+                    // thread, so it can't be left to the background thread
+                    record.getSourceClassName();
+                    log(() -> {
+                        var line = formatter.format(record);
+                        // The sink ends the lines itself
+                        return line.endsWith(System.lineSeparator())
+                            ? line.substring(0, line.length() - System.lineSeparator().length())
+                            : line;
+                    });
+                }
+            }
+
+            @Override public void flush() {
+            }
+
+            @Override public void close() {
+            }
+        };
+        handler.setFormatter(new SimpleFormatter());
+        return handler;
+    }
+
+    // Writes out the messages already queued and stops the background thread.
+    // It waits for that even if interrupted, and sets the interrupt status again
+    // afterwards.
+    @Override public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(consumer);
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                consumer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsChannel) {
+            out.close();
+        }
+    }
+
+    private void wakeConsumer() {
+        LockSupport.unpark(consumer);
+    }
+
+    private void consume() {
+        var batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+        for (;;) {
+            boolean stopping = closed;
+            var message = poll();
+            if (message == SKIPPED) {
+                continue;
+            }
+            if (message == null) {
+                if (stopping && head != tail.get()) {
+                    // Claimed, but not filled yet
+                    Thread.yield();
+                    continue;
+                }
+                flush(batch);
+                if (stopping) {
+                    // Everything logged before close() has been written
+                    return;
+                }
+                // Producers check this after publishing a message, and we check the
+                // buffer again after setting it, so neither can miss the other.
+                waiting = true;
+                if (isEmpty() && !closed) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                continue;
+            }
+            byte[] line;
+            try {
+                line = (message.get() + "\n").getBytes(StandardCharsets.UTF_8);
+            } catch (RuntimeException e) {
+                line = ("Failed to format log message: " + e + "\n").getBytes(StandardCharsets.UTF_8);
+            }
+            if (line.length > batch.remaining()) {
+                flush(batch);
+            }
+            if (line.length > batch.capacity()) {
+                write(ByteBuffer.wrap(line));
+            } else {
+                batch.put(line);
+            }
+        }
+    }
+
+    private Supplier<String> poll() {
+        int i = (int)head & mask;
+        if (sequences.get(i) != head + 1) {
+            return null;
+        }
+        var message = slots.get(i);
+        slots.set(i, null);
+        // Free the slot for the producer one round later
+        sequences.set(i, head + mask + 1);
+        ++head;
+        return message;
+    }
+
+    private boolean isEmpty() {
+        return sequences.get((int)head & mask) != head + 1;
+    }
+
+    private void flush(ByteBuffer batch) {
+        batch.flip();
+        write(batch);
+        batch.clear();
+    }
+
+    private void write(ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } catch (IOException e) {
+            // There's nowhere to log this to; don't let it kill the thread
+            e.printStackTrace();
+        }
+    }
+
+    // Compares the time logging threads spend in println on a shared PrintStream
+    // and in this sink, both writing to a file. Run with -Dthreads=... and
+    // -Dmessages=... (per thread).
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("threads", 8);
+        int messages = Integer.getInteger("messages", 200_000);
+        var file = Files.createTempFile("async-log", ".log");
+        try (var printStream = new PrintStream(new FileOutputStream(file.toFile()), true)) {
+            long t = run(threads, messages, (thread, i) -> printStream.println("thread " + thread + " message " + i));
+            System.out.println("println: " + ExecutorStrategy.stats((long)threads * messages, t));
+        }
+        try (var sink = open(file, 1 << 16, OverflowPolicy.BLOCK)) {
+            long t = run(threads, messages, (thread, i) -> sink.log(() -> "thread " + thread + " message " + i));
+            System.out.println("sink:    " + ExecutorStrategy.stats((long)threads * messages, t));
+        }
+        Files.delete(file);
+    }
+
+    private interface Logger {
+        void log(int thread, int i);
+    }
+
+    private static long run(int threads, int messages, Logger logger) throws InterruptedException {
+        var workers = new Thread[threads];
+        long t1 = System.nanoTime();
+        for (int n = 0; n < threads; ++n) {
+            final int thread = n;
+            workers[n] = new Thread(() -> {
+                for (int i = 0; i < messages; ++i) {
+                    logger.log(thread, i);
+                }
+            });
+            workers[n].start();
+        }
+        for (var w : workers) {
+            w.join();
+        }
+        return System.nanoTime() - t1;
+    }
+}
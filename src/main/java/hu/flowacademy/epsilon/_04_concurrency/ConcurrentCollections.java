@@ -10,7 +10,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
@@ -20,12 +19,16 @@ import java.util.function.Supplier;
 // ordinary HashMap, a Collections.synchronizedMap, and a ConcurrentHashMap. It also shows the
 // difference between using operations with atomic guarantees versus manually composing operations.
 public class ConcurrentCollections {
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final ExecutorStrategy strategy = ExecutorStrategy.fromSystemProperty();
+    private static final ExecutorService executorService = strategy.newExecutor();
+    private static final int ITERATIONS = 3000000;
 
     // Uses an executor service to run tasks in parallel
     private static void runWithExecServiceAndLatch(int taskCount, Runnable r, Supplier<Object> value) throws InterruptedException {
-        CountDownLatch ready = new CountDownLatch(taskCount);
-        CountDownLatch go = new CountDownLatch(1);
+        // No ready/go handshake on a bounded executor, see isBounded
+        boolean handshake = !strategy.isBounded();
+        CountDownLatch ready = new CountDownLatch(handshake ? taskCount : 0);
+        CountDownLatch go = new CountDownLatch(handshake ? 1 : 0);
         CountDownLatch done = new CountDownLatch(taskCount);
 
         Runnable r2 = () -> {
@@ -41,22 +44,23 @@ public class ConcurrentCollections {
                 done.countDown();
             }
         };
+        long t0 = System.nanoTime();
         for (int i = 0; i < taskCount; ++i) {
             executorService.execute(r2);
         }
 
         ready.await();
-        long t1 = System.nanoTime();
+        long t1 = handshake ? System.nanoTime() : t0;
         go.countDown();
         done.await();
         long t2 = System.nanoTime();
-        System.out.println((t2 - t1) + "\t" + value.get());
+        System.out.println((t2 - t1) + "\t" + value.get() + "\t" + ExecutorStrategy.stats((long)taskCount * ITERATIONS, t2 - t1));
     }
 
     // This is also a prime example of using Runnable as a Command pattern.
     private static Runnable doManyTimes(Runnable r) {
         return () -> {
-            for(int i = 0; i < 3000000; ++i) {
+            for(int i = 0; i < ITERATIONS; ++i) {
                 r.run();
             }
         };
@@ -122,6 +126,7 @@ public class ConcurrentCollections {
     }
 
     public static void main(String[] args) throws Exception {
+        System.out.println("Executor strategy: " + strategy);
         var concurrency = 10;
         run(concurrency, () -> {}, () -> 0); // noop, warmup
 
@@ -0,0 +1,72 @@
+package hu.flowacademy.epsilon._04_concurrency;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// The different kinds of executors our examples can run their tasks on. Which one
+// is used is chosen with the "executor" system property, e.g. -Dexecutor=virtual:
+//
+// - cached: Executors.newCachedThreadPool(), the default. Reuses idle threads, but
+//   starts a new platform thread whenever there is none. With blocking tasks this
+//   can mean thousands of threads.
+// - fixed: a fixed pool with one platform thread per CPU core. Tasks wait in a
+//   queue when all threads are busy, so blocking tasks limit the throughput.
+// - virtual: a new virtual thread for every task. Virtual threads are cheap, and
+//   when one blocks on I/O its carrier platform thread is released to run another,
+//   so blocking code scales to a huge number of concurrent tasks. This needs Java
+//   21; as we still compile for older versions, we look up the factory method
+//   reflectively.
+public enum ExecutorStrategy {
+    CACHED {
+        @Override public ExecutorService newExecutor() {
+            return Executors.newCachedThreadPool();
+        }
+    },
+    FIXED {
+        @Override public ExecutorService newExecutor() {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    },
+    VIRTUAL {
+        @Override public ExecutorService newExecutor() {
+            try {
+                return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException e) {
+                throw new UnsupportedOperationException("Virtual threads need Java 21 or later", e);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public abstract ExecutorService newExecutor();
+
+    // True if the executor may have fewer threads than tasks submitted to it, so
+    // tasks can't rely on all of them running at the same time. The harnesses
+    // make their tasks wait for each other to be ready before starting the
+    // clock; on a bounded executor that would block all the pool's threads
+    // forever, so there the tasks start right away, and the clock is started
+    // before submitting them.
+    public boolean isBounded() {
+        return this == FIXED;
+    }
+
+    public static ExecutorStrategy fromSystemProperty() {
+        return valueOf(System.getProperty("executor", "cached").toUpperCase(Locale.ROOT));
+    }
+
+    // Formats the throughput of a measured run along with the peak number of live
+    // threads since the previous call, and resets the peak for the next run. Note
+    // that virtual threads are not counted, only the platform threads carrying them.
+    public static String stats(long operations, long nanos) {
+        int peak = THREADS.getPeakThreadCount();
+        THREADS.resetPeakThreadCount();
+        return String.format("%.0f ops/s\t%d peak threads", operations * 1e9 / nanos, peak);
+    }
+}
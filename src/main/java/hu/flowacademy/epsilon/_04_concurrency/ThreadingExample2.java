@@ -3,7 +3,6 @@ package hu.flowacademy.epsilon._04_concurrency;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAccumulator;
@@ -14,10 +13,13 @@ import java.util.function.Supplier;
 // integer variable in a concurrent setting: no coordination, synchronization, AtomicInt and finally
 // LongAdder. It also shows three various strategies for concurrently executing tasks: direct control
 // of threads, using an executor service and wait/notify, and finally using an executor service and
-// CountdownLatch.
+// CountdownLatch. The executor service used is selected with the "executor" system
+// property, see ExecutorStrategy.
 public class ThreadingExample2 {
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final ExecutorStrategy strategy = ExecutorStrategy.fromSystemProperty();
+    private static final ExecutorService executorService = strategy.newExecutor();
     private static final int CONCURRENCY = 10;
+    private static final int ITERATIONS = 3000000;
 
     // Uses direct thread control to run tasks in parallel
     private static void runWithThreads(Runnable r, Supplier<Object> value) throws InterruptedException {
@@ -35,7 +37,7 @@ public class ThreadingExample2 {
             t.join();
         }
         long t2 = System.nanoTime();
-        System.out.println((t2 - t1) + "\t" + value.get());
+        print(t2 - t1, value);
     }
 
     private static final class Coordination {
@@ -111,15 +113,17 @@ public class ThreadingExample2 {
         coord.markGo();
         coord.waitDone();
         long t2 = System.nanoTime();
-        System.out.println((t2 - t1) + "\t" + value.get());
+        print(t2 - t1, value);
     }
 
     // Uses an executor service to run tasks in parallel, and uses few countdown
     // latches to coordinate starting and ending. This is the preferred modern
     // approach.
     private static void runWithExecServiceAndLatch(Runnable r, Supplier<Object> value) throws InterruptedException {
-        CountDownLatch ready = new CountDownLatch(CONCURRENCY);
-        CountDownLatch go = new CountDownLatch(1);
+        // No ready/go handshake on a bounded executor, see isBounded
+        boolean handshake = !strategy.isBounded();
+        CountDownLatch ready = new CountDownLatch(handshake ? CONCURRENCY : 0);
+        CountDownLatch go = new CountDownLatch(handshake ? 1 : 0);
         CountDownLatch done = new CountDownLatch(CONCURRENCY);
 
         Runnable r2 = () -> {
@@ -135,16 +139,17 @@ public class ThreadingExample2 {
                 done.countDown();
             }
         };
+        long t0 = System.nanoTime();
         for (int i = 0; i < CONCURRENCY; ++i) {
             executorService.execute(r2);
         }
 
         ready.await();
-        long t1 = System.nanoTime();
+        long t1 = handshake ? System.nanoTime() : t0;
         go.countDown();
         done.await();
         long t2 = System.nanoTime();
-        System.out.println((t2 - t1) + "\t" + value.get());
+        print(t2 - t1, value);
     }
 
     // Uses an executor service to run tasks in parallel, and uses Future.get to
@@ -166,20 +171,26 @@ public class ThreadingExample2 {
         }
 
         long t2 = System.nanoTime();
-        System.out.println((t2 - t1) + "\t" + value.get());
+        print(t2 - t1, value);
+    }
+
+    private static void print(long nanos, Supplier<Object> value) {
+        System.out.println(nanos + "\t" + value.get() + "\t" + ExecutorStrategy.stats((long)CONCURRENCY * ITERATIONS, nanos));
     }
 
     // This is also a prime example of using Runnable as a Command pattern.
     private static Runnable doManyTimes(Runnable r) {
         return () -> {
-            for(int i = 0; i < 3000000; ++i) {
+            for(int i = 0; i < ITERATIONS; ++i) {
                 r.run();
             }
         };
     }
 
+    // Runs on the selected executor; switch to runWithThreads to compare with
+    // direct thread control.
     private static void run(Runnable r, Supplier<Object> value) throws InterruptedException {
-        runWithThreads(doManyTimes(r), value);
+        runWithExecServiceAndLatch(doManyTimes(r), value);
     }
 
     private static final class MutableInt {
@@ -201,6 +212,7 @@ public class ThreadingExample2 {
     }
 
     public static void main(String[] args) throws Exception {
+        System.out.println("Executor strategy: " + strategy);
         run(() -> {}, () -> 0); // noop, warmup
 
         // This example shows you how concurrent execution is much harder to write
@@ -3,7 +3,6 @@ package hu.flowacademy.epsilon._04_concurrency;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -18,12 +17,16 @@ import java.util.function.Supplier;
 // of threads, using an executor service and wait/notify, and finally using an executor service and
 // CountdownLatch.
 public class ThreadingExample3 {
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final ExecutorStrategy strategy = ExecutorStrategy.fromSystemProperty();
+    private static final ExecutorService executorService = strategy.newExecutor();
+    private static final int ITERATIONS = 3000000;
 
     // Uses an executor service to run tasks in parallel
     private static void runWithExecServiceAndLatch(int taskCount, Runnable r, Supplier<Object> value) throws InterruptedException {
-        CountDownLatch ready = new CountDownLatch(taskCount);
-        CountDownLatch go = new CountDownLatch(1);
+        // No ready/go handshake on a bounded executor, see isBounded
+        boolean handshake = !strategy.isBounded();
+        CountDownLatch ready = new CountDownLatch(handshake ? taskCount : 0);
+        CountDownLatch go = new CountDownLatch(handshake ? 1 : 0);
         CountDownLatch done = new CountDownLatch(taskCount);
 
         Runnable r2 = () -> {
@@ -39,21 +42,22 @@ public class ThreadingExample3 {
                 done.countDown();
             }
         };
+        long t0 = System.nanoTime();
         for (int i = 0; i < taskCount; ++i) {
             executorService.execute(r2);
         }
         ready.await();
-        long t1 = System.nanoTime();
+        long t1 = handshake ? System.nanoTime() : t0;
         go.countDown();
         done.await();
         long t2 = System.nanoTime();
-        System.out.println((t2 - t1) + "\t" + value.get());
+        System.out.println((t2 - t1) + "\t" + value.get() + "\t" + ExecutorStrategy.stats((long)taskCount * ITERATIONS, t2 - t1));
     }
 
     private static void observeMaximum(Consumer<Long> accumulator) {
         // ThreadLocalRandom is much better than Random.
         Random r = ThreadLocalRandom.current();
-        for(int i = 0; i < 3000000; ++i) {
+        for(int i = 0; i < ITERATIONS; ++i) {
             var l = r.nextLong();
             accumulator.accept(l);
         }
@@ -82,6 +86,7 @@ public class ThreadingExample3 {
     }
 
     public static void main(String[] args) throws Exception {
+        System.out.println("Executor strategy: " + strategy);
         var concurrency = 20;
 
         run(concurrency, (x) -> {}, () -> 0); // noop, warmup
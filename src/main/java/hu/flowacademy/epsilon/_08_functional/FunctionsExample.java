@@ -1,5 +1,6 @@
 package hu.flowacademy.epsilon._08_functional;
 
+import hu.flowacademy.epsilon._04_concurrency.AsyncLogSink;
 import java.util.Date;
 import java.util.List;
 import java.util.function.*;
@@ -16,10 +17,23 @@ public class FunctionsExample {
     private static final IntUnaryOperator SQUARED_TRICE = TRICE.andThen(SQUARED);
 
     private static final Logger logger = Logger.getLogger(FunctionsExample.class.getName());
+    private static final AsyncLogSink debugLog = AsyncLogSink.stderr(1024, AsyncLogSink.OverflowPolicy.BLOCK);
+
+    // The records of the logger go to the sink instead of the console, so
+    // formatting and writing them happen on the sink's background thread. The
+    // levels and the rest of the logging configuration still apply.
+    //
+    // The supplier isn't even called on our thread: logDebug wraps it in a
+    // LazyRecord, and the sink's background thread calls it when it formats the
+    // record. A disabled message costs only the level check.
+    static {
+        logger.addHandler(debugLog.handler());
+        logger.setUseParentHandlers(false);
+    }
 
     public static void logDebug(Supplier<String> message) {
         if (logger.isLoggable(Level.FINE)) {
-            logger.log(Level.FINE, message.get());
+            logger.log(new AsyncLogSink.LazyRecord(Level.FINE, message));
         }
     }
 
@@ -38,7 +52,7 @@ public class FunctionsExample {
         return f.foo(x);
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         // Here we can see how our own interface can also be defined
         // with a method reference. It could also be defined with a lambda.
         var x = useMyFunction(String::toUpperCase, "abrakadabra");
@@ -54,5 +68,7 @@ public class FunctionsExample {
             final int j = i;
             logDebug(() -> "Started up at " + now() + " " + j);
         }
+        // Wait for the queued messages to be written
+        debugLog.close();
     }
 }
@@ -0,0 +1,37 @@
+package hu.flowacademy.epsilon._11_net;
+
+import hu.flowacademy.epsilon._04_concurrency.AsyncLogSink;
+import java.io.IOException;
+
+// Logs a line per request, in the spirit of the common log format. The threads
+// serving requests never write to the output themselves: calling
+// System.out.println from all of them would make them queue up for the lock of
+// the PrintStream, and wait for the terminal or file, for every line. Instead
+// they hand the line to an AsyncLogSink, unformatted, and its background thread
+// formats and writes the lines in batches.
+final class AccessLog {
+    private final AsyncLogSink sink;
+
+    AccessLog(AsyncLogSink sink) {
+        this.sink = sink;
+    }
+
+    void log(String remote, HttpRequest request, HttpResponse response, long nanos) {
+        int status = response.getStatus();
+        long length = response.getContentLength();
+        sink.log(() -> remote + " \"" + request + "\" " + status + " " + length + " " + nanos / 1000 + "us");
+    }
+
+    long getDropped() {
+        return sink.getDropped();
+    }
+
+    // Writes out the lines still queued
+    void close() {
+        try {
+            sink.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+// A part of a file to be sent as a response body. Instead of reading the file
+// into our own buffers and writing those to the socket, we ask the operating
+// system to transfer the bytes from the file to the socket directly with
+// FileChannel.transferTo (on Linux this is the sendfile system call), so the
+// content never has to be copied into the Java heap at all.
+//
+// A region keeps track of how much of it has been sent already, so unlike the
+// buffers of an HttpResponse it can only be sent once.
+final class FileRegion {
+    private final FileChannel file;
+    private long position;
+    private long remaining;
+
+    FileRegion(FileChannel file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.remaining = count;
+    }
+
+    long size() {
+        return remaining;
+    }
+
+    // Transfers as much as the target accepts without blocking. Returns true when
+    // the whole region has been sent. Throws EOFException if the file got
+    // shorter than the region since the response was made: transferTo would
+    // keep sending nothing, and the Content-Length promised to the client can't
+    // be kept anyway, so the connection has to be closed.
+    boolean transferTo(WritableByteChannel target) throws IOException {
+        while (remaining > 0) {
+            long n = file.transferTo(position, remaining, target);
+            if (n == 0) {
+                if (position >= file.size()) {
+                    throw new EOFException("File shrank while being sent");
+                }
+                return false;
+            }
+            position += n;
+            remaining -= n;
+        }
+        return true;
+    }
+
+    void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            ;
+        }
+    }
+}
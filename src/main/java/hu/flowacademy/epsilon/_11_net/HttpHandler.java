@@ -0,0 +1,12 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.IOException;
+
+// Produces the response to a request. Handlers are registered with a Router for
+// a path or a path prefix. A handler may return null if it doesn't want to
+// handle a request after all, in which case the router passes the request on
+// to the handler of the next shorter matching prefix.
+@FunctionalInterface
+public interface HttpHandler {
+    HttpResponse handle(HttpRequest request) throws IOException;
+}
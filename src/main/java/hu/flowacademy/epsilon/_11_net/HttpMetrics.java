@@ -0,0 +1,116 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Counters and latency histograms of an HTTP server, served in the Prometheus
+// text format (see handle()).
+//
+// Every request updates several of these, from all the threads serving
+// requests at once, so recording must not make the threads wait for each
+// other. A plain AtomicLong would: every increment is a compare-and-set on the
+// same cache line, which bounces between the cores and fails and retries under
+// contention. A LongAdder instead spreads the increments over several cells
+// when it sees contention, and only adds them up when the value is read, which
+// for metrics is rare. The latency histograms are striped the same way: every
+// route has a few histograms, a thread records into the one its id selects, and
+// they are merged when /metrics is requested.
+//
+// Values that the server already keeps track of, like the number of open
+// connections, are registered as gauges and only read when reported.
+public final class HttpMetrics {
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final Map<String, RouteMetrics> routes = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    private static final class RouteMetrics {
+        final LatencyHistogram[] stripes = new LatencyHistogram[STRIPES];
+
+        RouteMetrics() {
+            for (int i = 0; i < stripes.length; ++i) {
+                stripes[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(long nanos) {
+            stripes[(int)Thread.currentThread().getId() & (STRIPES - 1)].record(nanos);
+        }
+
+        LatencyHistogram merged() {
+            var merged = new LatencyHistogram();
+            for (var h : stripes) {
+                merged.add(h);
+            }
+            return merged;
+        }
+    }
+
+    public void requestReceived() {
+        requests.increment();
+    }
+
+    public void bytesIn(long n) {
+        if (n > 0) {
+            bytesIn.add(n);
+        }
+    }
+
+    public void bytesOut(long n) {
+        if (n > 0) {
+            bytesOut.add(n);
+        }
+    }
+
+    // Registers a value to be reported under the given name. Registering a name
+    // again replaces the previous gauge.
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Returns a handler that records the latency of the given handler under the
+    // route name. Requests the handler passes on (by returning null) aren't
+    // counted for the route.
+    public HttpHandler timed(String route, HttpHandler handler) {
+        var metrics = routes.computeIfAbsent(route, r -> new RouteMetrics());
+        return request -> {
+            long start = System.nanoTime();
+            var response = handler.handle(request);
+            if (response != null) {
+                metrics.record(System.nanoTime() - start);
+            }
+            return response;
+        };
+    }
+
+    // The /metrics endpoint
+    public HttpResponse handle(HttpRequest request) {
+        var out = new StringBuilder(1024);
+        out.append("http_requests_total ").append(requests.sum()).append('\n');
+        out.append("http_received_bytes_total ").append(bytesIn.sum()).append('\n');
+        out.append("http_sent_bytes_total ").append(bytesOut.sum()).append('\n');
+        for (var e : gauges.entrySet()) {
+            out.append(e.getKey()).append(' ').append(e.getValue().getAsLong()).append('\n');
+        }
+        for (var e : routes.entrySet()) {
+            var h = e.getValue().merged();
+            var labels = "route=\"" + e.getKey() + "\"";
+            for (var q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+                out.append("http_request_duration_seconds{").append(labels).append(",quantile=\"").append(q)
+                    .append("\"} ").append(h.getValueAtPercentile(q * 100) / 1e9).append('\n');
+            }
+            out.append("http_request_duration_seconds_max{").append(labels).append("} ")
+                .append(h.getMax() / 1e9).append('\n');
+            out.append("http_request_duration_seconds_count{").append(labels).append("} ")
+                .append(h.getTotalCount()).append('\n');
+        }
+        return HttpResponse.of(200, "OK", "text/plain; version=0.0.4; charset=utf-8",
+            out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
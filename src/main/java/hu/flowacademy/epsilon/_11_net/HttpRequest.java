@@ -0,0 +1,226 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A parsed HTTP request head. It is parsed straight from the bytes in a
+// connection's read buffer: we look for the blank line ending the head, split
+// the request line into method, target and protocol, and that's it. Header
+// lines are not parsed up front - we only remember where the header block is
+// and scan it when somebody asks for a header with getHeader(). This way a
+// request costs three small strings and this object, instead of a String and
+// a StringTokenizer per line like the BufferedReader based code did.
+//
+// Since the header block is a view of the read buffer, a request is only valid
+// until the connection reads the next chunk of data into that buffer.
+public final class HttpRequest {
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+
+    private final String method;
+    private final String target;
+    private final String protocol;
+    private final ByteBuffer headers;
+    private QueryString parameters;
+
+    private HttpRequest(String method, String target, String protocol, ByteBuffer headers) {
+        this.method = method;
+        this.target = target;
+        this.protocol = protocol;
+        this.headers = headers;
+    }
+
+    // Tries to parse one request head from the buffer, which must be a heap buffer
+    // in read mode (that is, flipped). Returns null if the buffer doesn't contain a
+    // complete head yet, and leaves the buffer position alone in that case. Otherwise
+    // the position is moved just past the head. Throws IllegalArgumentException if
+    // the request line is malformed.
+    static HttpRequest parse(ByteBuffer buf) {
+        byte[] a = buf.array();
+        int off = buf.arrayOffset();
+        int start = off + buf.position();
+        int limit = off + buf.limit();
+
+        int end = indexOfHeadEnd(a, start, limit);
+        if (end == -1) {
+            return null;
+        }
+
+        int lineEnd = indexOf(a, LF, start, end);
+        int headersStart = lineEnd + 1;
+        if (lineEnd > start && a[lineEnd - 1] == CR) {
+            --lineEnd;
+        }
+        int sp1 = indexOf(a, SP, start, lineEnd);
+        int sp2 = sp1 == -1 ? -1 : indexOf(a, SP, sp1 + 1, lineEnd);
+        if (sp1 <= start || sp2 <= sp1 + 1 || sp2 == lineEnd - 1) {
+            throw new IllegalArgumentException("Malformed request line");
+        }
+
+        var headers = buf.duplicate();
+        headers.limit(end - off).position(headersStart - off);
+        buf.position(end - off);
+        return new HttpRequest(
+            new String(a, start, sp1 - start, StandardCharsets.ISO_8859_1),
+            new String(a, sp1 + 1, sp2 - sp1 - 1, StandardCharsets.ISO_8859_1),
+            new String(a, sp2 + 1, lineEnd - sp2 - 1, StandardCharsets.ISO_8859_1),
+            headers.slice()
+        );
+    }
+
+    // Returns the index just past the empty line ending the head, or -1. We accept
+    // bare LF line endings too, like most servers do.
+    private static int indexOfHeadEnd(byte[] a, int from, int to) {
+        for (int i = indexOf(a, LF, from, to); i != -1; i = indexOf(a, LF, i + 1, to)) {
+            if (i + 1 < to && a[i + 1] == LF) {
+                return i + 2;
+            }
+            if (i + 2 < to && a[i + 1] == CR && a[i + 2] == LF) {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] a, byte b, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (a[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public String getPath() {
+        int qm = target.indexOf('?');
+        return qm == -1 ? target : target.substring(0, qm);
+    }
+
+    public String getQuery() {
+        int qm = target.indexOf('?');
+        return qm == -1 ? null : target.substring(qm + 1);
+    }
+
+    // The query parameters. The query string is only scanned and decoded when a
+    // parameter is looked up, see QueryString.
+    public QueryString getParameters() {
+        if (parameters == null) {
+            parameters = new QueryString(getQuery());
+        }
+        return parameters;
+    }
+
+    // Returns the decoded value of the first query parameter with the given name,
+    // or null.
+    public String getParameter(String name) {
+        return getParameters().get(name);
+    }
+
+    // Returns the value of the first header with the given (case insensitive) name,
+    // or null. Only the value of the requested header is turned into a String.
+    public String getHeader(String name) {
+        byte[] a = headers.array();
+        int off = headers.arrayOffset();
+        int end = off + headers.limit();
+        int i = off;
+        while (i < end) {
+            int lineEnd = indexOf(a, LF, i, end);
+            if (lineEnd == -1) {
+                lineEnd = end;
+            }
+            int colon = indexOf(a, (byte)':', i, lineEnd);
+            if (colon - i == name.length() && nameMatches(a, i, name)) {
+                int from = colon + 1;
+                int to = lineEnd;
+                while (from < to && (a[from] == SP || a[from] == '\t')) {
+                    ++from;
+                }
+                while (to > from && (a[to - 1] == CR || a[to - 1] == SP || a[to - 1] == '\t')) {
+                    --to;
+                }
+                return new String(a, from, to - from, StandardCharsets.ISO_8859_1);
+            }
+            i = lineEnd + 1;
+        }
+        return null;
+    }
+
+    // Returns the length of the request body as given by Content-Length, or 0 if
+    // there is no body.
+    public long getContentLength() {
+        var value = getHeader("Content-Length");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            long length = Long.parseLong(value);
+            if (length < 0) {
+                throw new IllegalArgumentException("Negative Content-Length");
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed Content-Length", e);
+        }
+    }
+
+    // HTTP/1.1 connections are persistent unless the client says otherwise, while
+    // HTTP/1.0 clients have to explicitly ask for keep-alive.
+    public boolean isKeepAlive() {
+        var connection = getHeader("Connection");
+        if ("HTTP/1.1".equals(protocol)) {
+            return connection == null || !hasToken(connection, "close");
+        }
+        return connection != null && hasToken(connection, "keep-alive");
+    }
+
+    // Checks whether a comma separated header value like "keep-alive, Upgrade"
+    // contains the token.
+    private static boolean hasToken(String value, String token) {
+        int i = 0;
+        while (i < value.length()) {
+            int comma = value.indexOf(',', i);
+            if (comma == -1) {
+                comma = value.length();
+            }
+            int from = i;
+            int to = comma;
+            while (from < to && value.charAt(from) == ' ') {
+                ++from;
+            }
+            while (to > from && value.charAt(to - 1) == ' ') {
+                --to;
+            }
+            if (to - from == token.length() && value.regionMatches(true, from, token, 0, token.length())) {
+                return true;
+            }
+            i = comma + 1;
+        }
+        return false;
+    }
+
+    private static boolean nameMatches(byte[] a, int from, String name) {
+        for (int j = 0; j < name.length(); ++j) {
+            if (Character.toLowerCase((char)(a[from + j] & 0xff)) != Character.toLowerCase(name.charAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override public String toString() {
+        return method + " " + target + " " + protocol;
+    }
+}
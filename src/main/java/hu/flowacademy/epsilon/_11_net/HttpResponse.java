@@ -0,0 +1,126 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// An HTTP response whose head (status line and headers) is encoded to bytes
+// once, when the response is created. Writing a response out is then a single
+// gathering write of the head, the connection specific end of the head, and
+// the body - no String concatenation, PrintWriter or OutputStreamWriter
+// copying the bytes around on the way.
+//
+// The body is either a buffer, or a region of a file that is transferred to
+// the socket without copying it through the heap (see FileRegion).
+public final class HttpResponse {
+    // The head is not terminated by an empty line; the server appends one of
+    // these, so the same response can be sent on any connection.
+    // They are sent with every response, so they live in direct memory, see
+    // direct().
+    static final ByteBuffer CONNECTION_CLOSE = directCopy(ascii("Connection: close\r\n\r\n"));
+    static final ByteBuffer CONNECTION_KEEP_ALIVE = directCopy(ascii("Connection: keep-alive\r\n\r\n"));
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final int status;
+    private final ByteBuffer head;
+    private final ByteBuffer body;
+    private final FileRegion file;
+
+    private HttpResponse(int status, ByteBuffer head, ByteBuffer body, FileRegion file) {
+        this.status = status;
+        this.head = head;
+        this.body = body;
+        this.file = file;
+    }
+
+    public static HttpResponse of(int status, String reason, String contentType, byte[] body) {
+        return of(status, reason, "Content-Type: " + contentType + "\r\n", ByteBuffer.wrap(body));
+    }
+
+    // Creates a response with the given header lines (each terminated by CRLF) and
+    // body. Content-Length is added here.
+    static HttpResponse of(int status, String reason, CharSequence headers, ByteBuffer body) {
+        return new HttpResponse(status, head(status, reason, headers, body.remaining()), body.asReadOnlyBuffer(), null);
+    }
+
+    static HttpResponse of(int status, String reason, CharSequence headers, FileRegion body) {
+        return new HttpResponse(status, head(status, reason, headers, body.size()), EMPTY, body);
+    }
+
+    public static HttpResponse html(String html) {
+        return of(200, "OK", "text/html; charset=ISO-8859-1", html.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public static HttpResponse error(int status, String reason) {
+        return of(status, reason, "text/plain; charset=ISO-8859-1", reason.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static ByteBuffer head(int status, String reason, CharSequence headers, long contentLength) {
+        var head = new StringBuilder(128)
+            .append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n")
+            .append(headers);
+        // A 304 has no body, and its Content-Length would have to be that of the
+        // full representation, so we rather leave it out.
+        if (status != 304) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        return ascii(head);
+    }
+
+    private static ByteBuffer ascii(CharSequence s) {
+        return ByteBuffer.wrap(s.toString().getBytes(StandardCharsets.ISO_8859_1)).asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer directCopy(ByteBuffer buffer) {
+        return ByteBuffer.allocateDirect(buffer.remaining()).put(buffer.duplicate()).flip().asReadOnlyBuffer();
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    // The length of the body in bytes
+    long getContentLength() {
+        return file != null ? file.size() : body.remaining();
+    }
+
+    // Whether the whole response is in memory, as opposed to having a file body
+    boolean isInMemory() {
+        return file == null;
+    }
+
+    // The number of bytes the response takes in memory
+    int byteSize() {
+        return head.remaining() + body.remaining();
+    }
+
+    // Returns a copy of this in-memory response with the head and the body in a
+    // single direct buffer. The channel writes heap buffers by first copying them
+    // into a temporary direct buffer, so for a response that is sent many times
+    // (see ResponseCache) this saves a copy on every send: the bytes go from the
+    // direct buffer straight to the socket.
+    HttpResponse direct() {
+        if (file != null) {
+            throw new IllegalStateException("Response has a file body");
+        }
+        var all = ByteBuffer.allocateDirect(byteSize());
+        all.put(head.duplicate()).put(body.duplicate()).flip();
+        int headLength = head.remaining();
+        var directHead = all.duplicate().limit(headLength).slice().asReadOnlyBuffer();
+        var directBody = all.position(headLength).slice().asReadOnlyBuffer();
+        return new HttpResponse(status, directHead, directBody, null);
+    }
+
+    // Adds the data making up this response to a connection's output. Buffers are
+    // added as fresh views, so concurrent writers of the same response don't
+    // disturb each other's positions.
+    void addTo(ResponseWriter out, boolean keepAlive) {
+        out.add(head.duplicate());
+        out.add((keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE).duplicate());
+        if (file != null) {
+            out.add(file);
+        } else if (body.hasRemaining()) {
+            out.add(body.duplicate());
+        }
+    }
+}
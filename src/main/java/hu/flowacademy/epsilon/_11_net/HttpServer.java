@@ -1,86 +1,375 @@
 package hu.flowacademy.epsilon._11_net;
 
-import java.io.BufferedReader;
+import hu.flowacademy.epsilon._04_concurrency.AsyncLogSink;
+import hu.flowacademy.epsilon._04_concurrency.ExecutorStrategy;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.StringTokenizer;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// A simple blocking HTTP server that uses a thread per connection. Connections
+// are persistent (HTTP/1.1 keep-alive): after answering a request we keep
+// reading the connection for the next one, until the client asks us to close
+// it or stays silent for longer than the idle timeout. Clients can also
+// pipeline requests, that is send several of them without waiting for the
+// responses; we answer them in order and send the responses together.
+//
+// The executor running the connections is selected with the "executor" system
+// property (see ExecutorStrategy). With the default cached thread pool every
+// open connection holds a platform thread, a fixed pool serves only as many
+// connections at once as it has threads, while with virtual threads this same
+// blocking code can keep tens of thousands of connections open. Every 1000
+// connections we print the accept rate and the peak thread count.
+//
+// To survive traffic spikes, the server limits how much work it takes on.
+// Connections the operating system accepted but we didn't pick up yet wait in
+// a bounded backlog, and beyond the maximum number of open connections new
+// ones are answered with a 503 right away instead of piling up threads and
+// memory. Every connection has timeouts for being idle, for sending a request
+// and for reading our response, so slow or stuck clients can't hold on to a
+// connection forever. On shutdown (also from a shutdown hook, e.g. on Ctrl-C)
+// the server stops accepting, closes idle connections, and gives the requests
+// in flight some time to complete.
+//
+// Requests are dispatched to handlers by their path, see Router. If a document
+// root is configured with the "httpserver.docroot" system property, GET requests
+// for files below it are served from there (see StaticFiles). Setting
+// "httpserver.cache.maxBytes" caches the generated pages, for
+// "httpserver.cache.ttl" milliseconds (see ResponseCache).
+//
+// Request counts, traffic, open connections and the latency of every route are
+// available at /metrics (see HttpMetrics). Setting "httpserver.accessLog" to
+// true logs every request to standard output, "httpserver.accessLog.file" logs
+// them to a file (see AccessLog). When requests come faster than the log can be
+// written, lines are dropped, or with "httpserver.accessLog.overflow=block"
+// the requests wait.
+//
+// See NioHttpServer for a version that doesn't need a thread per connection.
 public class HttpServer {
-    public static void main(String[] args) throws Exception {
-        ExecutorService es = Executors.newCachedThreadPool();
+    static final int PORT = Integer.getInteger("httpserver.port", 8080);
+    // Connections accepted by the operating system but not by us yet
+    static final int BACKLOG = Integer.getInteger("httpserver.backlog", 128);
+    static final int MAX_CONNECTIONS = Integer.getInteger("httpserver.maxConnections", 10000);
+    // All timeouts are in milliseconds. A persistent connection may stay silent
+    // between requests for IDLE_TIMEOUT, a client has READ_TIMEOUT to send the
+    // rest of a request it started, and WRITE_TIMEOUT to take our response.
+    static final int IDLE_TIMEOUT = Integer.getInteger("httpserver.idleTimeout", 10000);
+    static final int READ_TIMEOUT = Integer.getInteger("httpserver.readTimeout", 30000);
+    static final int WRITE_TIMEOUT = Integer.getInteger("httpserver.writeTimeout", 30000);
+    // How long a shutdown waits for requests in flight
+    static final int DRAIN_TIMEOUT = Integer.getInteger("httpserver.drainTimeout", 10000);
+    static final int BUFFER_SIZE = 8192;
+    static final StaticFiles STATIC_FILES = System.getProperty("httpserver.docroot") == null
+        ? null
+        : new StaticFiles(Path.of(System.getProperty("httpserver.docroot")));
+    static final ResponseCache CACHE = Long.getLong("httpserver.cache.maxBytes", 0) <= 0
+        ? null
+        : new ResponseCache(Long.getLong("httpserver.cache.maxBytes"),
+            Long.getLong("httpserver.cache.ttl", 60000), TimeUnit.MILLISECONDS);
+    static final HttpMetrics METRICS = new HttpMetrics();
+    static final AccessLog ACCESS_LOG = accessLog();
+    private static final HttpHandler HELLO = CACHE == null ? HttpServer::hello : CACHE.cached(HttpServer::hello);
+
+    // The routes of the server; used by both server variants. If static files are
+    // enabled they are tried first for every path, and the greeting answers the
+    // rest.
+    static final Router ROUTER = new Router()
+        .route("/metrics", METRICS.timed("/metrics", METRICS::handle))
+        .routePrefix("/", METRICS.timed("/", request -> {
+            if (STATIC_FILES != null && "GET".equals(request.getMethod())) {
+                var response = STATIC_FILES.serve(request);
+                if (response != null) {
+                    return response;
+                }
+            }
+            return HELLO.handle(request);
+        }));
+
+    private static final HttpResponse SERVICE_UNAVAILABLE = HttpResponse.of(503, "Service Unavailable",
+        "Retry-After: 1\r\nContent-Type: text/plain; charset=ISO-8859-1\r\n",
+        ByteBuffer.wrap("Service Unavailable".getBytes(StandardCharsets.ISO_8859_1)));
+
+    private static final int STATS_INTERVAL = 1000;
+    private static final int ACCESS_LOG_CAPACITY = 1 << 14;
+
+    private final ExecutorStrategy strategy = ExecutorStrategy.fromSystemProperty();
+    private final ExecutorService es = strategy.newExecutor();
+    // Closes connections whose writes take too long; blocking channel writes have
+    // no timeout of their own.
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        var t = new Thread(r, "write-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ServerSocketChannel server;
+    private final int port;
+    private final AtomicInteger active = new AtomicInteger();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean draining;
+
+    private static final class Connection {
+        final SocketChannel channel;
+        // True while we wait for the next request with nothing received yet, so
+        // the connection can be closed without interrupting a request.
+        volatile boolean idle;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public HttpServer(int port) throws IOException {
+        this.port = port;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), BACKLOG);
+        METRICS.gauge("http_active_connections", active::get);
+        if (es instanceof ThreadPoolExecutor) {
+            var queue = ((ThreadPoolExecutor)es).getQueue();
+            METRICS.gauge("http_executor_queue_depth", queue::size);
+        }
+    }
 
-        ServerSocket ss = new ServerSocket(8080);
+    public void run() throws IOException {
+        System.out.println("Executor strategy: " + strategy);
+        long accepted = 0;
+        long t1 = System.nanoTime();
+        System.out.println("Waiting on " + port);
         for (;;) {
-            System.out.println("Waiting on 8080");
-            final Socket s = ss.accept();
+            final SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                if (draining) {
+                    return;
+                }
+                throw e;
+            }
+            if (active.incrementAndGet() > MAX_CONNECTIONS) {
+                active.decrementAndGet();
+                reject(channel);
+                continue;
+            }
+            try {
+                es.execute(() -> serve(channel));
+            } catch (RejectedExecutionException e) {
+                // stop() shut the executor down after we accepted this one
+                active.decrementAndGet();
+                close(channel);
+                if (draining) {
+                    return;
+                }
+                throw e;
+            }
+            if (++accepted % STATS_INTERVAL == 0) {
+                long t2 = System.nanoTime();
+                System.out.println(accepted + " connections\t" + ExecutorStrategy.stats(STATS_INTERVAL, t2 - t1)
+                    + (CACHE != null ? "\t" + CACHE : ""));
+                t1 = t2;
+            }
+        }
+    }
+
+    // Stops accepting connections, closes the idle ones, and waits for the
+    // others to finish the requests they're working on (they are closed after
+    // sending their response). Connections still open after the drain timeout are
+    // closed forcibly.
+    public void stop() throws InterruptedException {
+        draining = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            ;
+        }
+        for (var c : connections) {
+            if (c.idle) {
+                close(c.channel);
+            }
+        }
+        es.shutdown();
+        if (!es.awaitTermination(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            for (var c : connections) {
+                close(c.channel);
+            }
+            es.shutdownNow();
+        }
+        watchdog.shutdownNow();
+        if (ACCESS_LOG != null) {
+            ACCESS_LOG.close();
+        }
+    }
+
+    // Turns a connection away with a 503. This runs on the thread accepting
+    // connections, so it must never block: we send what fits into the socket
+    // buffer, which is all of this tiny response in practice.
+    static void reject(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            // Discard what the client has sent so far. Closing a socket with unread
+            // data makes the operating system reset the connection, and the client
+            // may never see our response.
+            channel.read(ByteBuffer.allocate(BUFFER_SIZE));
+            var out = new ResponseWriter();
+            SERVICE_UNAVAILABLE.addTo(out, false);
+            out.writeTo(channel);
+        } catch (IOException e) {
+            ;
+        } finally {
+            close(channel);
+        }
+    }
+
+    private static AccessLog accessLog() {
+        var policy = AsyncLogSink.OverflowPolicy.valueOf(
+            System.getProperty("httpserver.accessLog.overflow", "drop").toUpperCase(Locale.ROOT));
+        var file = System.getProperty("httpserver.accessLog.file");
+        AccessLog log;
+        if (file != null) {
+            try {
+                log = new AccessLog(AsyncLogSink.open(Path.of(file), ACCESS_LOG_CAPACITY, policy));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else if (Boolean.getBoolean("httpserver.accessLog")) {
+            log = new AccessLog(AsyncLogSink.stdout(ACCESS_LOG_CAPACITY, policy));
+        } else {
+            return null;
+        }
+        METRICS.gauge("http_access_log_dropped_total", log::getDropped);
+        return log;
+    }
+
+    static HttpResponse hello(HttpRequest request) {
+        var name = request.getParameter("name");
+        if (name == null) {
+            name = "World";
+        }
+        return HttpResponse.html("<html><body><h1>Hello " + name + "</h1></body></html>");
+    }
 
-            es.execute(() -> {
+    private void serve(SocketChannel channel) {
+        var connection = new Connection(channel);
+        connections.add(connection);
+        var out = new ResponseWriter();
+        try (channel) {
+            var socket = channel.socket();
+            var remote = socket.getInetAddress().getHostAddress();
+            // Unlike reads on the channel itself, reads through the socket's input
+            // stream honour the timeout.
+            var in = socket.getInputStream();
+            var decoder = new RequestDecoder(BUFFER_SIZE);
+            for (;;) {
+                HttpRequest request;
                 try {
-                    try {
-                        System.out.println("Got connection from " + s.getInetAddress());
-                        InputStream in = s.getInputStream();
-
-                        BufferedReader r = new BufferedReader(
-                            new InputStreamReader(in, StandardCharsets.ISO_8859_1));
-
-                        String requestLine = r.readLine();
-                        System.out.println(requestLine);
-                        StringTokenizer tok = new StringTokenizer(requestLine, " ");
-                        String action = tok.nextToken();
-                        String url = tok.nextToken();
-                        String protocol = tok.nextToken();
-
-                        String name = "World";
-                        int qm = url.indexOf('?');
-                        if (qm != -1) {
-                            String params = url.substring(qm + 1);
-                            StringTokenizer paramTok = new StringTokenizer(params, "&");
-                            while (paramTok.hasMoreTokens()) {
-                                String paramSpec = paramTok.nextToken();
-                                StringTokenizer paramTok2 = new StringTokenizer(paramSpec, "=");
-                                String paramName = paramTok2.nextToken();
-                                String paramValue = paramTok2.nextToken();
-
-                                if ("name".equals(paramName)) {
-                                    name = paramValue;
-                                }
-                            }
-                        }
-
-                        for (;;) {
-                            String l = r.readLine();
-                            if ("".equals(l)) {
-                                break;
-                            }
-                            System.out.println(l);
-                        }
-
-                        OutputStream out = s.getOutputStream();
-                        PrintWriter pw = new PrintWriter(
-                            new OutputStreamWriter(out, StandardCharsets.ISO_8859_1));
-                        pw.println("HTTP/1.1 200 OK");
-                        pw.println("Content-Type: text/html; charset=ISO-8859-1");
-                        pw.println("");
-                        pw.println("<html><body><h1>Hello " + name + "</h1></body></html>");
-                        pw.flush();
-                        out.close();
-                        Thread.sleep(10000);
-                    } finally {
-                        s.close();
+                    request = decoder.next();
+                } catch (IllegalArgumentException e) {
+                    HttpResponse.error(400, "Bad Request").addTo(out, false);
+                    break;
+                }
+                if (request == null) {
+                    if (decoder.isFull()) {
+                        HttpResponse.error(431, "Request Header Fields Too Large").addTo(out, false);
+                        break;
+                    }
+                    // We've answered everything the client has sent so far, send the
+                    // responses before blocking for more input.
+                    write(channel, out);
+                    boolean idle = !decoder.hasBufferedData();
+                    // Setting idle before checking draining pairs with stop() doing
+                    // the reverse, so one of us is sure to see the other.
+                    connection.idle = idle;
+                    if (idle && draining) {
+                        break;
+                    }
+                    socket.setSoTimeout(idle ? IDLE_TIMEOUT : READ_TIMEOUT);
+                    int n = decoder.readFrom(in);
+                    connection.idle = false;
+                    METRICS.bytesIn(n);
+                    if (n == -1) {
+                        break;
                     }
-                } catch (IOException | InterruptedException e) {
-                    e.printStackTrace();
+                    continue;
                 }
-            });
+
+                boolean keepAlive = request.isKeepAlive() && !draining;
+                respond(remote, request, out, keepAlive);
+                if (!keepAlive) {
+                    break;
+                }
+            }
+            write(channel, out);
+        } catch (SocketTimeoutException e) {
+            // Idle or too slow connection, we just close it
+        } catch (IOException e) {
+            if (!draining) {
+                e.printStackTrace();
+            }
+        } finally {
+            out.close();
+            connections.remove(connection);
+            active.decrementAndGet();
         }
     }
+
+    // Dispatches a request and queues its response, shared by both server variants
+    static void respond(String remote, HttpRequest request, ResponseWriter out, boolean keepAlive) {
+        METRICS.requestReceived();
+        long start = System.nanoTime();
+        var response = ROUTER.dispatch(request);
+        if (ACCESS_LOG != null) {
+            ACCESS_LOG.log(remote, request, response, System.nanoTime() - start);
+        }
+        response.addTo(out, keepAlive);
+    }
+
+    private void write(SocketChannel channel, ResponseWriter out) throws IOException {
+        if (out.isEmpty()) {
+            return;
+        }
+        var timeout = watchdog.schedule(() -> close(channel), WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
+        try {
+            while (!out.writeTo(channel)) {
+                // A blocking channel only returns early if transferTo sent less than
+                // asked, just keep going.
+            }
+        } finally {
+            timeout.cancel(false);
+            METRICS.bytesOut(out.takeBytesWritten());
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var server = new HttpServer(PORT);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        server.run();
+    }
 }
@@ -0,0 +1,116 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+// A histogram of latencies in the style of HdrHistogram. Keeping every measured
+// value to compute percentiles would take a lot of memory, while fixed width
+// buckets either lose precision for small values or need a huge number of
+// buckets for large ones. Instead, buckets here get wider as values grow: values
+// below 128 have a bucket each, then every power of two range [2^k, 2^(k+1)) is
+// divided into 64 equal buckets. This keeps every value with better than 2%
+// relative precision, and the whole range of long fits in 3712 buckets.
+//
+// Recording is thread safe and lock free, so several threads can record into
+// the same histogram.
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    static int indexOf(long value) {
+        // Number of low bits we drop; 0 for values below 128
+        int shift = 63 - Long.numberOfLeadingZeros(value | (2 * SUB_BUCKETS - 1)) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int)(value >>> shift);
+    }
+
+    // The largest value that falls into the bucket with the given index
+    static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long sub = index - (shift << SUB_BUCKET_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        counts.incrementAndGet(indexOf(value));
+        max.accumulate(value);
+    }
+
+    // Records a value, correcting for coordinated omission. A load generator that
+    // waits for each response before sending the next request stops sending
+    // while the server is stalled, so it records one slow request where clients
+    // arriving at the expected rate would have seen a whole series of them. If the
+    // value is longer than the expected interval between requests, we also record
+    // the latencies those missing requests would have seen: value - interval,
+    // value - 2 * interval and so on.
+    public void recordCorrected(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        max.accumulate(other.max.get());
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    // Returns the value below or at which the given percentage of the recorded
+    // values are, e.g. getValueAtPercentile(99.9).
+    public long getValueAtPercentile(double percentile) {
+        long total = getTotalCount();
+        if (total == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += counts.get(i);
+            if (seen >= countAtPercentile) {
+                return Math.min(highestValueAt(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    // Summarizes the distribution of values recorded in nanoseconds, in
+    // microseconds.
+    public String summary() {
+        return String.format("count=%d p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+            getTotalCount(),
+            getValueAtPercentile(50) / 1000,
+            getValueAtPercentile(90) / 1000,
+            getValueAtPercentile(99) / 1000,
+            getValueAtPercentile(99.9) / 1000,
+            getMax() / 1000);
+    }
+}
@@ -0,0 +1,243 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// A load generator for HttpServer and NioHttpServer. It opens a number of
+// persistent connections and sends GET requests on each of them, one at a
+// time, then prints the throughput and the latency distribution.
+//
+// There are two modes:
+// - Closed loop (load.rate=0, the default): every connection sends its next
+//   request as soon as it got the response to the previous one. This measures
+//   the maximum throughput, but the latencies it reports are too optimistic: when
+//   the server stalls, the generator stalls with it and simply doesn't send the
+//   requests that would have suffered from the stall. This is called
+//   coordinated omission. Setting load.expectedInterval (microseconds) makes the
+//   histogram fill in the missing samples, see LatencyHistogram.recordCorrected.
+// - Open loop (load.rate > 0): requests are scheduled at a fixed total rate,
+//   spread evenly over the connections, no matter how fast the server answers.
+//   Latency is measured from when a request should have been sent, not from
+//   when it actually was, so time spent waiting behind a slow response counts -
+//   just like it would for a real user.
+//
+// All settings are system properties: load.host, load.port, load.path,
+// load.connections, load.rate (requests/second), load.duration (seconds) and
+// load.expectedInterval.
+public class LoadGenerator {
+    private final InetSocketAddress address;
+    private final ByteBuffer request;
+    private final int connections;
+    private final long rate;
+    private final long durationNanos;
+    private final long expectedIntervalNanos;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+
+    public LoadGenerator(InetSocketAddress address, String path, int connections, long rate,
+                         long durationNanos, long expectedIntervalNanos) {
+        // Every request that's due within the duration is sent, however late, so
+        // a rate no generator can keep up with would make the run endless
+        if (rate < 0 || rate > 1_000_000_000L) {
+            throw new IllegalArgumentException("Rate must be between 0 and 1e9 requests/s: " + rate);
+        }
+        this.address = address;
+        this.request = ByteBuffer.wrap(
+            ("GET " + path + " HTTP/1.1\r\nHost: " + address.getHostString() + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1)).asReadOnlyBuffer();
+        this.connections = connections;
+        this.rate = rate;
+        this.durationNanos = durationNanos;
+        this.expectedIntervalNanos = expectedIntervalNanos;
+    }
+
+    public void run() throws InterruptedException {
+        var done = new CountDownLatch(connections);
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        for (int i = 0; i < connections; ++i) {
+            int index = i;
+            new Thread(() -> {
+                try {
+                    drive(index, start, end);
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + i).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        long count = histogram.getTotalCount();
+        System.out.println(String.format("%s loop, %d connections, %d s",
+            rate > 0 ? "Open (" + rate + " req/s)" : "Closed", connections, elapsed / 1_000_000_000L));
+        System.out.println(String.format("Throughput: %.0f req/s, errors: %d", count * 1e9 / elapsed, errors.sum()));
+        System.out.println("Latency: " + histogram.summary());
+    }
+
+    // In open loop, the requests of the whole run are numbered in the order they
+    // are due, and connection i sends the ones with n % connections == i, so
+    // the connections take turns instead of all sending at once.
+    private void drive(int index, long start, long end) {
+        boolean open = rate > 0;
+        var buffer = ByteBuffer.allocate(64 * 1024);
+        SocketChannel channel = null;
+        long n = index;
+        long intended = open ? due(start, n) : start;
+        while (intended < end) {
+            if (open) {
+                // If we're behind schedule we send right away, but the latency is
+                // still measured from the intended time.
+                long wait = intended - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long sent = System.nanoTime();
+            try {
+                if (channel == null) {
+                    channel = SocketChannel.open(address);
+                    buffer.clear().flip();
+                }
+                var req = request.duplicate();
+                while (req.hasRemaining()) {
+                    channel.write(req);
+                }
+                var head = readResponse(channel, buffer);
+                long now = System.nanoTime();
+                if (Integer.parseInt(head.substring(9, 12)) >= 400) {
+                    errors.increment();
+                }
+                if (open) {
+                    histogram.record(now - intended);
+                } else {
+                    histogram.recordCorrected(now - sent, expectedIntervalNanos);
+                }
+                if (hasConnectionClose(head)) {
+                    close(channel);
+                    channel = null;
+                }
+            } catch (IOException | RuntimeException e) {
+                errors.increment();
+                close(channel);
+                channel = null;
+            }
+            if (open) {
+                n += connections;
+                intended = due(start, n);
+            } else {
+                intended = System.nanoTime();
+            }
+        }
+        close(channel);
+    }
+
+    // When the n-th request of the run is due. It's computed from the start
+    // every time, not by adding up an interval rounded to nanoseconds: at high
+    // rates that would drift, or round down to 0 and quietly make the run a
+    // closed loop without any correction.
+    private long due(long start, long n) {
+        return start + (long)(n * 1e9 / rate);
+    }
+
+    // Reads one response, which may already be partly in the buffer. Leaves what
+    // comes after it (nothing, as we don't pipeline) in the buffer and returns the
+    // head of the response.
+    private static String readResponse(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        int headEnd;
+        while ((headEnd = indexOfHeadEnd(buffer)) == -1) {
+            fill(channel, buffer);
+        }
+        var head = new String(buffer.array(), buffer.position(), headEnd - buffer.position(), StandardCharsets.ISO_8859_1);
+        if (!head.startsWith("HTTP/1.")) {
+            throw new IllegalArgumentException("Not an HTTP response");
+        }
+        long remaining = contentLength(head);
+        buffer.position(headEnd);
+        while (remaining > 0) {
+            if (!buffer.hasRemaining()) {
+                fill(channel, buffer);
+            }
+            int skip = (int)Math.min(remaining, buffer.remaining());
+            buffer.position(buffer.position() + skip);
+            remaining -= skip;
+        }
+        return head;
+    }
+
+    // Reads more of the response. Fails when the buffer is full, which happens
+    // only with a head that doesn't fit in it: a read into a full buffer would
+    // return 0 every time, and we would keep asking forever.
+    private static void fill(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.compact();
+        try {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Response head larger than " + buffer.capacity() + " bytes");
+            }
+            if (channel.read(buffer) == -1) {
+                throw new EOFException("Connection closed by server");
+            }
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    private static int indexOfHeadEnd(ByteBuffer buffer) {
+        byte[] a = buffer.array();
+        for (int i = buffer.position(); i + 3 < buffer.limit(); ++i) {
+            if (a[i] == '\r' && a[i + 1] == '\n' && a[i + 2] == '\r' && a[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    private static long contentLength(String head) {
+        var lower = head.toLowerCase();
+        int i = lower.indexOf("\ncontent-length:");
+        if (i == -1) {
+            return 0;
+        }
+        int end = lower.indexOf('\r', i + 1);
+        return Long.parseLong(head.substring(i + 16, end).trim());
+    }
+
+    private static boolean hasConnectionClose(String head) {
+        return head.toLowerCase().contains("\nconnection: close");
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // The same default as HttpServer.PORT, without touching HttpServer,
+        // whose initializer would set up its metrics, access log and docroot
+        // in this process too
+        var address = new InetSocketAddress(
+            System.getProperty("load.host", "localhost"),
+            Integer.getInteger("load.port", Integer.getInteger("httpserver.port", 8080)));
+        new LoadGenerator(
+            address,
+            System.getProperty("load.path", "/?name=load"),
+            Integer.getInteger("load.connections", 16),
+            Long.getLong("load.rate", 0),
+            Long.getLong("load.duration", 10) * 1_000_000_000L,
+            Long.getLong("load.expectedInterval", 0) * 1000
+        ).run();
+    }
+}
@@ -0,0 +1,363 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A non-blocking variant of HttpServer. HttpServer dedicates a thread to every
+// connection, and that thread spends most of its life blocked waiting for the
+// network. With many clients that means many thousands of threads, each with
+// its own stack. Here a fixed number of event loop threads (one per CPU core by
+// default) multiplex all the connections: every loop owns a Selector and only
+// touches a connection when the operating system tells it the connection can
+// be read or written without blocking.
+//
+// The main thread just accepts connections and hands them out to the event
+// loops in a round-robin fashion. Every connection has a single read buffer
+// that is reused for its whole life, requests are parsed directly from it (see
+// HttpRequest.parse), and responses are written with a gathering write of
+// already encoded buffers.
+//
+// Connections are persistent and may pipeline requests, just like with
+// HttpServer. Since no thread is blocked reading a connection here, idle
+// connections are found by the event loops checking every connection's last
+// activity from time to time. The same check enforces the read and write
+// timeouts, and the connection limit and graceful shutdown work like in
+// HttpServer: connections beyond the limit get a 503, and on shutdown idle
+// connections are closed while busy ones finish their requests first.
+//
+// Run HttpServer for the blocking thread-per-connection version to compare.
+public class NioHttpServer {
+    // Milliseconds between two checks for idle connections
+    private static final long SWEEP_INTERVAL = Math.max(1, HttpServer.IDLE_TIMEOUT / 10);
+
+    private static final long IDLE_NANOS = HttpServer.IDLE_TIMEOUT * 1_000_000L;
+    private static final long READ_NANOS = HttpServer.READ_TIMEOUT * 1_000_000L;
+    private static final long WRITE_NANOS = HttpServer.WRITE_TIMEOUT * 1_000_000L;
+
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile boolean draining;
+
+    public NioHttpServer(int port, int loopCount) throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), HttpServer.BACKLOG);
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loops.length; ++i) {
+            loops[i] = new EventLoop();
+        }
+        HttpServer.METRICS.gauge("http_active_connections", active::get);
+        HttpServer.METRICS.gauge("http_pending_registrations", () -> {
+            int pending = 0;
+            for (var loop : loops) {
+                pending += loop.pending.size();
+            }
+            return pending;
+        });
+    }
+
+    public void run() throws IOException {
+        for (int i = 0; i < loops.length; ++i) {
+            new Thread(loops[i], "event-loop-" + i).start();
+        }
+        int next = 0;
+        for (;;) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                if (draining) {
+                    return;
+                }
+                throw e;
+            }
+            if (active.incrementAndGet() > HttpServer.MAX_CONNECTIONS) {
+                active.decrementAndGet();
+                HttpServer.reject(channel);
+                continue;
+            }
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    // Stops accepting connections and lets the event loops close the idle ones.
+    // Busy connections are closed after sending the response they're working on;
+    // whatever is still open after the drain timeout is closed forcibly.
+    public void stop() throws InterruptedException {
+        draining = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            ;
+        }
+        for (var loop : loops) {
+            loop.wakeup();
+        }
+        long deadline = System.nanoTime() + HttpServer.DRAIN_TIMEOUT * 1_000_000L;
+        while (active.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        for (var loop : loops) {
+            loop.stop();
+        }
+        if (HttpServer.ACCESS_LOG != null) {
+            HttpServer.ACCESS_LOG.close();
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        // Channels accepted by the main thread, waiting to be registered with our
+        // selector. Registration has to happen on the loop thread itself, otherwise
+        // it would block while the loop is inside select().
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+        private long lastSweep = System.nanoTime();
+        private volatile boolean running = true;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        void wakeup() {
+            selector.wakeup();
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override public void run() {
+            while (running) {
+                try {
+                    selector.select(SWEEP_INTERVAL);
+                    registerPending();
+                    var it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        var key = it.next();
+                        it.remove();
+                        var connection = (Connection)key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                    closeExpired();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (var key : selector.keys()) {
+                ((Connection)key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                ;
+            }
+        }
+
+        private void closeExpired() {
+            long now = System.nanoTime();
+            // While draining we check on every wakeup, so idle connections go away
+            // right after stop() asks for it.
+            if (!draining && now - lastSweep < SWEEP_INTERVAL * 1_000_000L) {
+                return;
+            }
+            lastSweep = now;
+            for (var key : selector.keys()) {
+                var connection = (Connection)key.attachment();
+                if (connection.isExpired(now) || draining && connection.isIdle()) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    var key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    active.decrementAndGet();
+                    try {
+                        channel.close();
+                    } catch (IOException e2) {
+                        ;
+                    }
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final RequestDecoder decoder = new RequestDecoder(HttpServer.BUFFER_SIZE);
+        // Responses not written completely yet
+        private final ResponseWriter out = new ResponseWriter();
+        private boolean closeAfterWrite;
+        private boolean closed;
+        private long lastActive = System.nanoTime();
+        // When the client started sending the request we have only part of, and
+        // when we started waiting for it to take our response; 0 if neither.
+        private long readStarted;
+        private long writeStarted;
+        // The client's address, for the access log
+        private String remote;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        boolean isIdle() {
+            return out.isEmpty() && !decoder.hasBufferedData();
+        }
+
+        boolean isExpired(long now) {
+            if (writeStarted != 0) {
+                return now - writeStarted > WRITE_NANOS;
+            }
+            if (readStarted != 0) {
+                return now - readStarted > READ_NANOS;
+            }
+            return now - lastActive > IDLE_NANOS;
+        }
+
+        void read() throws IOException {
+            int n = decoder.readFrom(channel);
+            if (n == -1) {
+                close();
+                return;
+            }
+            lastActive = System.nanoTime();
+            HttpServer.METRICS.bytesIn(n);
+            boolean answered = false;
+            // A single read can bring in several pipelined requests, answer all of
+            // them before writing.
+            for (;;) {
+                HttpRequest request;
+                try {
+                    request = decoder.next();
+                } catch (IllegalArgumentException e) {
+                    respond(HttpResponse.error(400, "Bad Request"), false);
+                    break;
+                }
+                if (request == null) {
+                    if (decoder.isFull()) {
+                        respond(HttpResponse.error(431, "Request Header Fields Too Large"), false);
+                    }
+                    break;
+                }
+                boolean keepAlive = request.isKeepAlive() && !draining;
+                HttpServer.respond(remote(), request, out, keepAlive);
+                closeAfterWrite = !keepAlive;
+                answered = true;
+                if (!keepAlive) {
+                    break;
+                }
+            }
+            // What is left in the buffer is the start of the next request, the read
+            // timeout runs from when its first bytes arrived.
+            if (!decoder.hasBufferedData()) {
+                readStarted = 0;
+            } else if (answered || readStarted == 0) {
+                readStarted = lastActive;
+            }
+            if (!out.isEmpty()) {
+                write();
+            }
+        }
+
+        private String remote() {
+            if (remote == null) {
+                try {
+                    remote = ((InetSocketAddress)channel.getRemoteAddress()).getAddress().getHostAddress();
+                } catch (IOException e) {
+                    remote = "-";
+                }
+            }
+            return remote;
+        }
+
+        private void respond(HttpResponse response, boolean keepAlive) {
+            response.addTo(out, keepAlive);
+            closeAfterWrite = !keepAlive;
+        }
+
+        void write() throws IOException {
+            boolean done = out.writeTo(channel);
+            lastActive = System.nanoTime();
+            HttpServer.METRICS.bytesOut(out.takeBytesWritten());
+            // The write timeout runs from the first write the client couldn't take
+            // at once, and restarts once it took everything.
+            if (done) {
+                writeStarted = 0;
+            } else if (writeStarted == 0) {
+                writeStarted = lastActive;
+            }
+            if (!done) {
+                // Socket send buffer is full, continue when it drains. Until then we
+                // don't read further requests either, so a client that doesn't read
+                // its responses can't make us buffer unlimited amounts of them.
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (closeAfterWrite || draining && isIdle()) {
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.decrementAndGet();
+            out.close();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var server = new NioHttpServer(HttpServer.PORT, Runtime.getRuntime().availableProcessors());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        server.run();
+    }
+}
@@ -0,0 +1,109 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+// Lazy access to the parameters of a query string like "name=J%C3%B3zsef&x=1".
+// Nothing is split or decoded up front. Looking up a parameter scans the raw
+// string in place, and only the value that is actually returned is decoded.
+// Names and values without escapes (the common case) are compared in place
+// and returned as plain substrings, without any decoding at all.
+public final class QueryString {
+    private final String raw;
+
+    public QueryString(String raw) {
+        this.raw = raw == null ? "" : raw;
+    }
+
+    // Returns the decoded value of the first parameter with the given name, or
+    // null. A parameter without '=' has the empty string as its value.
+    public String get(String name) {
+        int i = 0;
+        while (i < raw.length()) {
+            int amp = indexOf('&', i, raw.length());
+            int eq = indexOf('=', i, amp);
+            int nameEnd = eq == -1 ? amp : eq;
+            if (nameEquals(i, nameEnd, name)) {
+                return eq == -1 ? "" : decode(raw, eq + 1, amp);
+            }
+            i = amp + 1;
+        }
+        return null;
+    }
+
+    // Calls the action with every decoded name and value, in order.
+    public void forEach(BiConsumer<String, String> action) {
+        int i = 0;
+        while (i < raw.length()) {
+            int amp = indexOf('&', i, raw.length());
+            int eq = indexOf('=', i, amp);
+            if (amp > i) {
+                if (eq == -1) {
+                    action.accept(decode(raw, i, amp), "");
+                } else {
+                    action.accept(decode(raw, i, eq), decode(raw, eq + 1, amp));
+                }
+            }
+            i = amp + 1;
+        }
+    }
+
+    private int indexOf(char c, int from, int to) {
+        int i = raw.indexOf(c, from);
+        return i == -1 || i > to ? to : i;
+    }
+
+    private boolean nameEquals(int from, int to, String name) {
+        if (!needsDecoding(raw, from, to)) {
+            return to - from == name.length() && raw.startsWith(name, from);
+        }
+        return decode(raw, from, to).equals(name);
+    }
+
+    private static boolean needsDecoding(String s, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '+') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Decodes application/x-www-form-urlencoded text: '+' is a space, and %XX
+    // escapes are bytes of UTF-8 encoded characters. Throws IllegalArgumentException
+    // for malformed escapes.
+    static String decode(String s, int from, int to) {
+        if (!needsDecoding(s, from, to)) {
+            return s.substring(from, to);
+        }
+        var bytes = new ByteArrayOutputStream(to - from);
+        for (int i = from; i < to; ++i) {
+            char c = s.charAt(i);
+            if (c == '+') {
+                bytes.write(' ');
+            } else if (c == '%') {
+                if (i + 2 >= to) {
+                    throw new IllegalArgumentException("Malformed escape in query string");
+                }
+                int hi = Character.digit(s.charAt(i + 1), 16);
+                int lo = Character.digit(s.charAt(i + 2), 16);
+                if (hi == -1 || lo == -1) {
+                    throw new IllegalArgumentException("Malformed escape in query string");
+                }
+                bytes.write((hi << 4) | lo);
+                i += 2;
+            } else {
+                // Characters outside ASCII aren't valid in a URL anyway, but be lenient
+                var utf8 = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(utf8, 0, utf8.length);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override public String toString() {
+        return raw;
+    }
+}
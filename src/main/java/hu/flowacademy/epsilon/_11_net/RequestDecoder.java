@@ -0,0 +1,84 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+// Splits the bytes arriving on one connection into requests. A persistent
+// connection can carry any number of requests one after the other, and with
+// pipelining a client can send several of them before reading any response,
+// so a single read can bring in more than one request (and the start of yet
+// another one). The decoder keeps the unconsumed bytes in its buffer and hands
+// out complete requests one by one. It is used by both HttpServer and
+// NioHttpServer; they only differ in how they wait for more data.
+//
+// We don't support request bodies, but we still need to skip over them (as
+// told by Content-Length) so the next request on the connection is found at
+// the right place.
+final class RequestDecoder {
+    // Always in read mode: position..limit are the bytes not consumed yet.
+    private final ByteBuffer buffer;
+    private long bodyRemaining;
+
+    RequestDecoder(int bufferSize) {
+        buffer = ByteBuffer.allocate(bufferSize);
+        buffer.limit(0);
+    }
+
+    // Returns the next complete request, or null if more data needs to be read
+    // first. The returned request is valid until the next call to readFrom().
+    // Throws IllegalArgumentException if the request can't be parsed.
+    HttpRequest next() {
+        if (bodyRemaining > 0) {
+            int skip = (int)Math.min(bodyRemaining, buffer.remaining());
+            buffer.position(buffer.position() + skip);
+            bodyRemaining -= skip;
+            if (bodyRemaining > 0) {
+                return null;
+            }
+        }
+        var request = HttpRequest.parse(buffer);
+        if (request != null) {
+            if (request.getHeader("Transfer-Encoding") != null) {
+                throw new IllegalArgumentException("Chunked request bodies are not supported");
+            }
+            bodyRemaining = request.getContentLength();
+        }
+        return request;
+    }
+
+    // True if there are bytes not consumed yet, that is, the beginning of a
+    // request we haven't received completely.
+    boolean hasBufferedData() {
+        return buffer.hasRemaining();
+    }
+
+    // True if the buffer is full of a single incomplete request head, so we can't
+    // make progress by reading more.
+    boolean isFull() {
+        return buffer.position() == 0 && buffer.limit() == buffer.capacity();
+    }
+
+    int readFrom(ReadableByteChannel channel) throws IOException {
+        buffer.compact();
+        try {
+            return channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    int readFrom(InputStream in) throws IOException {
+        buffer.compact();
+        try {
+            int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (n > 0) {
+                buffer.position(buffer.position() + n);
+            }
+            return n;
+        } finally {
+            buffer.flip();
+        }
+    }
+}
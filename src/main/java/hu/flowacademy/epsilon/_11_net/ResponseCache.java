@@ -0,0 +1,171 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Caches the responses of handlers whose output depends only on the method,
+// the path and the query parameters of the request, like the greeting of
+// HttpServer. Without a cache such a handler builds the same page again for
+// every request: concatenates strings, encodes them to bytes and formats the
+// headers. A cached response is already encoded, and its head and body sit in
+// a single direct buffer (see HttpResponse.direct()), so sending it is just a
+// write from that buffer to the socket.
+//
+// The key is the method, the path and the query parameters sorted by name, so
+// "?a=1&b=2" and "?b=2&a=1" (or "?a=%31&b=2") share an entry. Entries expire
+// after a fixed time to live, and the total size of the cached responses is
+// kept under a byte budget by evicting the oldest entries first. Lookups don't
+// take any lock, and the hit and miss counters are LongAdders, so the cache
+// doesn't become a point of contention between the threads serving requests.
+//
+// Only GET requests with in-memory responses are cached; a handler that
+// serves files (see StaticFiles) is better off with the operating system's
+// page cache.
+public final class ResponseCache {
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Entries in the order they were added, for eviction. Replaced and expired
+    // entries stay in here until they reach the head, but they no longer count
+    // towards the size.
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Entry {
+        final String key;
+        final HttpResponse response;
+        final int size;
+        final long expiresAt;
+
+        Entry(String key, HttpResponse response, long expiresAt) {
+            this.key = key;
+            this.response = response;
+            this.size = response.byteSize();
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public ResponseCache(long maxBytes, long ttl, TimeUnit unit) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    // Returns a handler that answers from the cache, and calls the given handler
+    // (and caches its response) on a miss.
+    public HttpHandler cached(HttpHandler handler) {
+        return request -> {
+            if (!"GET".equals(request.getMethod())) {
+                return handler.handle(request);
+            }
+            var key = key(request);
+            long now = System.nanoTime();
+            var entry = entries.get(key);
+            if (entry != null && now - entry.expiresAt < 0) {
+                hits.increment();
+                return entry.response;
+            }
+            misses.increment();
+            if (entry != null) {
+                remove(entry);
+            }
+            var response = handler.handle(request);
+            if (response != null && response.isInMemory() && response.byteSize() <= maxBytes) {
+                response = response.direct();
+                put(new Entry(key, response, now + ttlNanos));
+            }
+            return response;
+        };
+    }
+
+    // Two threads missing the same key at the same time both build the response
+    // and the second one replaces the first; that's cheaper than making them
+    // wait for each other.
+    private void put(Entry entry) {
+        var old = entries.put(entry.key, entry);
+        if (old != null) {
+            bytes.addAndGet(-old.size);
+        }
+        order.add(entry);
+        bytes.addAndGet(entry.size);
+        evict();
+    }
+
+    // Drops the oldest entries while we're over the budget, and the stale ones at
+    // the head of the queue, so a few frequently replaced keys don't make the
+    // queue grow without bound.
+    private void evict() {
+        Entry oldest;
+        while ((oldest = order.peek()) != null) {
+            if (entries.get(oldest.key) != oldest) {
+                order.remove(oldest);
+            } else if (bytes.get() > maxBytes) {
+                if (order.remove(oldest) && remove(oldest)) {
+                    evictions.increment();
+                }
+            } else {
+                break;
+            }
+        }
+    }
+
+    private boolean remove(Entry entry) {
+        if (entries.remove(entry.key, entry)) {
+            bytes.addAndGet(-entry.size);
+            return true;
+        }
+        return false;
+    }
+
+    static String key(HttpRequest request) {
+        var key = new StringBuilder(64).append(request.getMethod()).append(' ').append(request.getPath());
+        var query = request.getQuery();
+        if (query == null || query.isEmpty()) {
+            return key.toString();
+        }
+        var parameters = new ArrayList<String[]>();
+        request.getParameters().forEach((name, value) -> parameters.add(new String[] { name, value }));
+        // A stable sort keeps the order of repeated parameters, which matters to
+        // handlers reading all of them
+        parameters.sort((a, b) -> a[0].compareTo(b[0]));
+        // Decoded names and values may contain any character, so they are length
+        // prefixed rather than separated
+        for (var p : parameters) {
+            key.append(' ').append(p[0].length()).append(':').append(p[0])
+                .append(p[1].length()).append(':').append(p[1]);
+        }
+        return key.toString();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override public String toString() {
+        return String.format("cache: %d entries, %d bytes, %d hits, %d misses, %d evictions",
+            size(), getBytes(), getHits(), getMisses(), getEvictions());
+    }
+}
@@ -0,0 +1,87 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+// The queue of response data waiting to be sent on a connection. Consecutive
+// buffers are sent with a single gathering write, and file regions are
+// transferred straight from the file. Used by both HttpServer and NioHttpServer;
+// the blocking server simply keeps writing until everything is sent, the
+// non-blocking one continues when the socket becomes writable again.
+final class ResponseWriter {
+    // ByteBuffers and FileRegions in the order they have to be sent
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    // Bytes sent since the last takeBytesWritten()
+    private long written;
+
+    void add(ByteBuffer buffer) {
+        pending.addLast(buffer);
+    }
+
+    void add(FileRegion region) {
+        pending.addLast(region);
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    // Returns the number of bytes sent since the last call, for the metrics
+    long takeBytesWritten() {
+        long n = written;
+        written = 0;
+        return n;
+    }
+
+    // Writes as much as the channel accepts. Returns true if everything has been
+    // written.
+    boolean writeTo(SocketChannel channel) throws IOException {
+        while (!pending.isEmpty()) {
+            var first = pending.peekFirst();
+            if (first instanceof FileRegion) {
+                var region = (FileRegion)first;
+                long before = region.size();
+                boolean done = region.transferTo(channel);
+                written += before - region.size();
+                if (!done) {
+                    return false;
+                }
+                region.close();
+                pending.removeFirst();
+            } else {
+                int count = 0;
+                for (var o : pending) {
+                    if (!(o instanceof ByteBuffer)) {
+                        break;
+                    }
+                    ++count;
+                }
+                var buffers = new ByteBuffer[count];
+                var it = pending.iterator();
+                for (int i = 0; i < count; ++i) {
+                    buffers[i] = (ByteBuffer)it.next();
+                }
+                written += channel.write(buffers);
+                for (var buffer : buffers) {
+                    if (buffer.hasRemaining()) {
+                        return false;
+                    }
+                    pending.removeFirst();
+                }
+            }
+        }
+        return true;
+    }
+
+    // Releases the files of responses that won't be sent anymore
+    void close() {
+        for (var o : pending) {
+            if (o instanceof FileRegion) {
+                ((FileRegion)o).close();
+            }
+        }
+        pending.clear();
+    }
+}
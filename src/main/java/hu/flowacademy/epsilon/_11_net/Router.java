@@ -0,0 +1,155 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Dispatches requests to handlers by their path. Handlers are registered either
+// for an exact path, like "/metrics", or for a prefix ending in '/', like
+// "/static/", which matches every path starting with it. An exact match wins,
+// otherwise the longest matching prefix does. If that handler returns null, the
+// request goes on to the next shorter matching prefix; if no handler answers,
+// the response is 404.
+//
+// Routes are kept in a character trie. Registration rebuilds a compiled copy
+// of it, in which every node has its outgoing edge characters in a sorted array
+// and its children in a parallel array. Matching a path is then a walk down the
+// trie with a binary search per character: no splitting of the path into
+// segments, no substrings and no hashing. Register all the routes before the
+// server starts; the compiled trie is published through a volatile field, so
+// the event loops and worker threads see a consistent copy.
+public final class Router {
+    private static final HttpResponse NOT_FOUND = HttpResponse.error(404, "Not Found");
+
+    // The trie under construction, only touched by route()
+    private final Builder root = new Builder();
+    private volatile Node compiled = new Builder().compile(0);
+
+    private static final class Builder {
+        final Map<Character, Builder> children = new TreeMap<>();
+        HttpHandler exact;
+        HttpHandler prefix;
+
+        Node compile(int depth) {
+            var labels = new char[children.size()];
+            var nodes = new Node[children.size()];
+            int i = 0;
+            for (var e : children.entrySet()) {
+                labels[i] = e.getKey();
+                nodes[i] = e.getValue().compile(depth + 1);
+                ++i;
+            }
+            return new Node(depth, labels, nodes, exact, prefix);
+        }
+    }
+
+    private static final class Node {
+        final int depth;
+        final char[] labels;
+        final Node[] children;
+        final HttpHandler exact;
+        final HttpHandler prefix;
+
+        Node(int depth, char[] labels, Node[] children, HttpHandler exact, HttpHandler prefix) {
+            this.depth = depth;
+            this.labels = labels;
+            this.children = children;
+            this.exact = exact;
+            this.prefix = prefix;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i < 0 ? null : children[i];
+        }
+    }
+
+    public synchronized Router route(String path, HttpHandler handler) {
+        var node = builder(path);
+        if (node.exact != null) {
+            throw new IllegalArgumentException("Duplicate route " + path);
+        }
+        node.exact = handler;
+        compiled = root.compile(0);
+        return this;
+    }
+
+    public synchronized Router routePrefix(String prefix, HttpHandler handler) {
+        if (!prefix.endsWith("/")) {
+            throw new IllegalArgumentException("Prefix must end with '/': " + prefix);
+        }
+        var node = builder(prefix);
+        if (node.prefix != null) {
+            throw new IllegalArgumentException("Duplicate prefix route " + prefix);
+        }
+        node.prefix = handler;
+        compiled = root.compile(0);
+        return this;
+    }
+
+    private Builder builder(String path) {
+        if (!path.startsWith("/")) {
+            throw new IllegalArgumentException("Path must start with '/': " + path);
+        }
+        var node = root;
+        for (int i = 0; i < path.length(); ++i) {
+            node = node.children.computeIfAbsent(path.charAt(i), c -> new Builder());
+        }
+        return node;
+    }
+
+    // Produces the response to a request. Bad input that surfaces in a handler as
+    // IllegalArgumentException (like a malformed escape in the query string) is
+    // answered with 400, I/O failures with 500.
+    public HttpResponse dispatch(HttpRequest request) {
+        try {
+            var path = request.getPath();
+            var root = compiled;
+            var exact = find(root, path);
+            if (exact != null && exact.exact != null) {
+                var response = exact.exact.handle(request);
+                if (response != null) {
+                    return response;
+                }
+            }
+            int limit = path.length() + 1;
+            for (;;) {
+                var node = longestPrefix(root, path, limit);
+                if (node == null) {
+                    return NOT_FOUND;
+                }
+                var response = node.prefix.handle(request);
+                if (response != null) {
+                    return response;
+                }
+                limit = node.depth;
+            }
+        } catch (IllegalArgumentException e) {
+            return HttpResponse.error(400, "Bad Request");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return HttpResponse.error(500, "Internal Server Error");
+        }
+    }
+
+    private static Node find(Node node, String path) {
+        for (int i = 0; i < path.length() && node != null; ++i) {
+            node = node.child(path.charAt(i));
+        }
+        return node;
+    }
+
+    // Returns the deepest node with a prefix handler along the path, whose prefix
+    // is shorter than limit characters.
+    private static Node longestPrefix(Node node, String path, int limit) {
+        Node found = null;
+        for (int i = 0; node != null && i < limit; ++i) {
+            if (node.prefix != null) {
+                found = node;
+            }
+            node = i < path.length() ? node.child(path.charAt(i)) : null;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,195 @@
+package hu.flowacademy.epsilon._11_net;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Serves files from a document root directory.
+//
+// Bodies are never read into the heap: large files are sent with
+// FileChannel.transferTo (see FileRegion), while small files - typically the hot
+// assets like icons, scripts and stylesheets - are memory mapped once and kept
+// mapped, so sending one is just a write from the page cache backed buffer.
+//
+// Every file gets an ETag derived from its size and modification time. A
+// client that already has the current version sends it back in If-None-Match,
+// and gets a 304 Not Modified without a body. Clients can also ask for a single
+// byte range of a file with the Range header, e.g. to resume a download.
+final class StaticFiles {
+    // Files up to this size are memory mapped and cached
+    private static final long MAPPED_LIMIT = 64 * 1024;
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    private final Path root;
+    private final ConcurrentHashMap<Path, MappedFile> mapped = new ConcurrentHashMap<>();
+
+    private static final class MappedFile {
+        final long size;
+        final long lastModified;
+        final ByteBuffer content;
+
+        MappedFile(long size, long lastModified, ByteBuffer content) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+
+    StaticFiles(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    // Returns the response for the file the request's path points to, or null if
+    // there is no such file.
+    HttpResponse serve(HttpRequest request) throws IOException {
+        var file = resolve(request.getPath());
+        if (file == null) {
+            return null;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!attrs.isRegularFile()) {
+            return null;
+        }
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        var etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+
+        var ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+            return HttpResponse.of(304, "Not Modified", "ETag: " + etag + "\r\n", ByteBuffer.allocate(0));
+        }
+
+        var headers = new StringBuilder(128)
+            .append("Content-Type: ").append(contentType(file)).append("\r\n")
+            .append("ETag: ").append(etag).append("\r\n")
+            .append("Accept-Ranges: bytes\r\n");
+
+        long start = 0;
+        long end = size;
+        int status = 200;
+        String reason = "OK";
+        var range = request.getHeader("Range");
+        var ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] r = parseRange(range, size);
+            if (r == UNSATISFIABLE) {
+                return HttpResponse.of(416, "Range Not Satisfiable",
+                    "Content-Range: bytes */" + size + "\r\n", ByteBuffer.allocate(0));
+            }
+            if (r != null) {
+                start = r[0];
+                end = r[1];
+                status = 206;
+                reason = "Partial Content";
+                headers.append("Content-Range: bytes ").append(start).append('-').append(end - 1)
+                    .append('/').append(size).append("\r\n");
+            }
+        }
+
+        if (size <= MAPPED_LIMIT) {
+            var content = mapped(file, size, lastModified).duplicate();
+            content.limit((int)end).position((int)start);
+            return HttpResponse.of(status, reason, headers, content.slice());
+        }
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+        return HttpResponse.of(status, reason, headers, new FileRegion(channel, start, end - start));
+    }
+
+    // Maps the path to a file below the root, or returns null if it points
+    // outside of it (like /../../etc/passwd).
+    private Path resolve(String path) {
+        // URLDecoder decodes form data, where '+' means a space; in a path it doesn't
+        var decoded = URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8);
+        var file = root.resolve(decoded.substring(1)).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    private ByteBuffer mapped(Path file, long size, long lastModified) throws IOException {
+        var m = mapped.get(file);
+        if (m == null || m.size != size || m.lastModified != lastModified) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // The mapping stays valid after the channel is closed
+                m = new MappedFile(size, lastModified, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+            mapped.put(file, m);
+        }
+        return m.content;
+    }
+
+    private static String contentType(Path file) {
+        var type = URLConnection.guessContentTypeFromName(file.getFileName().toString());
+        return type != null ? type : "application/octet-stream";
+    }
+
+    // If-None-Match is either * or a comma separated list of ETags, possibly weak
+    // ones (W/"...") which match just as well for this purpose.
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        for (var tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Parses a single byte range: "bytes=first-last", "bytes=first-" or
+    // "bytes=-suffixLength". Returns {start, end} with end exclusive, or
+    // UNSATISFIABLE. Returns null for anything we don't handle (e.g. multiple
+    // ranges) in which case we simply send the whole file, which is allowed.
+    private static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return null;
+        }
+        int dash = range.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+        var first = range.substring(6, dash).trim();
+        var last = range.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                // An empty file has no last bytes to send, not even a range of
+                // none, which would be bytes 0--1
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[] { Math.max(0, size - suffix), size };
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size : Long.parseLong(last) + 1;
+            if (end <= start) {
+                // Like bytes=5-3: not a range at all, so the header is ignored
+                return null;
+            }
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            end = Math.min(size, end);
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}